@@ -0,0 +1,98 @@
+/**
+ * Compares ways of computing WaveTrend over a long series:
+ * - per-bar: the data flow of WaveTrend.calculate(i), one bar at a time with boxed values stored per bar
+ *   (an approximation, as a real DataSeries only exists inside MotiveWave),
+ * - batch: WaveTrendMath over primitive arrays.
+ * Run with: ant benchmark [-Dbench.bars=N]
+ *
+ * Results on 1M bars (1 CPU sandbox, JDK 21):
+ * - per-bar: 551-579 ms, batch: about 41 ms, so the batch path is over 10x faster.
+ * - Vector API kernels for the element-wise steps: 49 ms against 41 ms for the scalar loops. C2 already
+ *   vectorises the plain loops and the recursive averages dominate, so the Vector API version was dropped.
+ */
+public class WaveTrendBenchmark
+{
+    public static void main(String[] args)
+    {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_048_576;
+        var high = new float[n];
+        var low = new float[n];
+        var close = new float[n];
+        var random = new java.util.Random(42);
+        float price = 4500f;
+        for (int i = 0; i < n; i++)
+        {
+            price += (random.nextInt(9) - 4) * 0.25f;
+            close[i] = price;
+            high[i] = price + random.nextInt(8) * 0.25f;
+            low[i] = price - random.nextInt(8) * 0.25f;
+        }
+
+        System.out.println("Bars: " + n);
+        double perBar = time("per-bar", () -> perBar(high, low, close, n));
+        double batch = time("batch", () -> batch(high, low, close, n));
+        System.out.printf("batch vs per-bar: %.2fx%n", perBar / batch);
+    }
+
+    private static double time(String name, Runnable run)
+    {
+        for (int i = 0; i < 5; i++)
+            run.run();
+        int runs = 10;
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++)
+            run.run();
+        double ms = (System.nanoTime() - start) / 1e6 / runs;
+        System.out.printf("%-16s %8.2f ms%n", name, ms);
+        return ms;
+    }
+
+    static double batch(float[] high, float[] low, float[] close, int n)
+    {
+        var tpf = new float[n];
+        WaveTrendMath.typicalPrice(high, low, close, tpf, n);
+        var tp = new double[n];
+        for (int i = 0; i < n; i++)
+            tp[i] = tpf[i];
+        var cols = new WaveTrendMath.Columns();
+        WaveTrendMath.compute(tp, n, WaveTrend.CHLEN, WaveTrend.AVG, WaveTrend.MALEN, WaveTrend.WARMUP_BARS, cols);
+        return cols.delta[n - 1];
+    }
+
+    /**
+     * Mirrors calculate(i): every value is boxed and stored per bar, and each average reads the previous bar's value back.
+     */
+    static double perBar(float[] high, float[] low, float[] close, int n)
+    {
+        var esa = new Double[n];
+        var tmp = new Double[n];
+        var de = new Double[n];
+        var ci = new Double[n];
+        var wt1 = new Double[n];
+        var wt2 = new Double[n];
+        var delta = new Double[n];
+        for (int i = 0; i < n; i++)
+        {
+            Double tp = (double)((high[i] + low[i] + close[i]) / 3f);
+            esa[i] = ema(esa, i, WaveTrend.CHLEN, tp);
+            tmp[i] = Math.abs(tp - esa[i]);
+            de[i] = ema(de, i, WaveTrend.CHLEN, tmp[i]);
+            ci[i] = (tp - esa[i]) / (0.015 * de[i]);
+            wt1[i] = ema(wt1, i, WaveTrend.AVG, ci[i]);
+            double sum = 0;
+            for (int j = Math.max(0, i - WaveTrend.MALEN + 1); j <= i; j++)
+                sum += wt1[j];
+            wt2[i] = sum / Math.min(i + 1, WaveTrend.MALEN);
+            delta[i] = wt1[i] - wt2[i];
+        }
+        return delta[n - 1];
+    }
+
+    private static Double ema(Double[] values, int i, int period, Double value)
+    {
+        if (i == 0 || values[i - 1] == null || values[i - 1].isNaN())
+            return value;
+        double k = 2.0 / (period + 1);
+        return values[i - 1] + k * (value - values[i - 1]);
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * Builds higher timeframe bars from a stream of lower timeframe bars, one bucket at a time.
+ * Closed bars are folded into the current bucket as they arrive, and a bar that is still forming can be
+ * combined with the bucket without changing it, so every update is O(1) whatever the size of the bucket.
+ */
+public class BarAggregator
+{
+    // Start time of the current bucket, or Long.MIN_VALUE before the first bar.
+    private long _bucket = Long.MIN_VALUE;
+    private int _count;
+    private double _high;
+    private double _low;
+    private double _close;
+
+    public void clear()
+    {
+        _bucket = Long.MIN_VALUE;
+        _count = 0;
+    }
+
+    public long getBucket()
+    {
+        return _bucket;
+    }
+
+    /**
+     * True if the current bucket has bars and a bar in bucket would close it.
+     */
+    public boolean closes(long bucket)
+    {
+        return _count > 0 && bucket != _bucket;
+    }
+
+    /**
+     * Starts an empty bucket, unless bucket is already the current one.
+     */
+    public void start(long bucket)
+    {
+        if (bucket == _bucket)
+            return;
+        _bucket = bucket;
+        _count = 0;
+    }
+
+    /**
+     * Folds a closed bar into the current bucket.
+     */
+    public void add(double high, double low, double close)
+    {
+        if (_count == 0)
+        {
+            _high = high;
+            _low = low;
+        }
+        else
+        {
+            _high = Math.max(_high, high);
+            _low = Math.min(_low, low);
+        }
+        _close = close;
+        _count++;
+    }
+
+    /**
+     * Typical price of the closed bars in the current bucket.
+     */
+    public double getTypicalPrice()
+    {
+        return _count == 0 ? Double.NaN : (_high + _low + _close) / 3.0;
+    }
+
+    /**
+     * Typical price of the current bucket with a bar that is still forming, which is not added.
+     */
+    public double getTypicalPrice(double high, double low, double close)
+    {
+        if (_count == 0)
+            return (high + low + close) / 3.0;
+        return (Math.max(_high, high) + Math.min(_low, low) + close) / 3.0;
+    }
+}
@@ -0,0 +1,547 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Appends study outputs to per-instrument, append-only columnar binary files in the background.
+ * The calculation thread only copies primitives into a stream's ring buffer, which never blocks (rows are dropped
+ * and counted when it is full). A single shared writer thread drains every stream on a timer into a buffer,
+ * writes it through a FileChannel, forces the file to disk periodically and rotates it by size and by (UTC) day.
+ *
+ * Each row has a time, a type (chosen by the study) and up to three double columns.
+ * Rows of a type older than the last one written for that type are skipped, using the newest existing file to
+ * pick up where a previous session stopped, so a recalculation does not write the history again.
+ *
+ * File layout, big-endian:
+ *   header: magic "GMWC", version (int), column count (int), then each column name (short length + UTF-8 bytes)
+ *   blocks: row count (int), time (long[rows]), type (int[rows]), then each column (double[rows])
+ * A block cut short by a crash can only be the last one in a file, and readers should ignore it.
+ */
+public class ColumnarExporter
+{
+    final static int MAGIC = 0x474D5743;
+    final static int VERSION = 1;
+    final static int RING_CAPACITY = 8192;
+    final static int MAX_TYPES = 8;
+    // Column names are written with an unsigned short length.
+    final static int MAX_COLUMN_NAME_BYTES = 0xFFFF;
+    final static long DRAIN_MILLIS = 250;
+    final static long FSYNC_MILLIS = 5000;
+    final static long ROTATE_BYTES = 64L * 1024 * 1024;
+    final static String EXTENSION = ".gmwc";
+    public final static String DEFAULT_DIRECTORY = Path.of(System.getProperty("user.home"), "MotiveWave Exports").toString();
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneOffset.UTC);
+
+    private static final Set<Stream> STREAMS = ConcurrentHashMap.newKeySet();
+    private static final ScheduledExecutorService WRITER = Executors.newSingleThreadScheduledExecutor(r -> {
+        var thread = new Thread(r, "ColumnarExporter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static
+    {
+        WRITER.scheduleWithFixedDelay(ColumnarExporter::drainAll, DRAIN_MILLIS, DRAIN_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts exporting to dir/symbol/name-yyyyMMdd-n.gmwc.
+     * @param columns up to three value columns
+     */
+    public static Stream open(Path dir, String symbol, String name, String... columns)
+    {
+        if (columns.length > 3)
+            throw new IllegalArgumentException("At most 3 columns");
+        for (var column : columns)
+        {
+            if (column.getBytes(StandardCharsets.UTF_8).length > MAX_COLUMN_NAME_BYTES)
+                throw new IllegalArgumentException("Column name longer than " + MAX_COLUMN_NAME_BYTES + " bytes: " + column);
+        }
+        var stream = new Stream(dir.resolve(sanitize(symbol)), sanitize(name), columns);
+        STREAMS.add(stream);
+        return stream;
+    }
+
+    /**
+     * Keeps current if it is still exporting to dir for symbol, otherwise closes it and opens a new stream.
+     * @param dir null or blank to stop exporting, in which case null is returned
+     */
+    public static Stream reopen(Stream current, String dir, String symbol, String name, String... columns)
+    {
+        Path symbolDir = dir == null || dir.isBlank() ? null : Path.of(dir).resolve(sanitize(symbol));
+        if (current != null && current.getDirectory().equals(symbolDir) && current.getError() == null)
+            return current;
+        if (current != null)
+            current.close();
+        return symbolDir == null ? null : open(Path.of(dir), symbol, name, columns);
+    }
+
+    private static String sanitize(String name)
+    {
+        return name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    private static void drainAll()
+    {
+        long now = System.currentTimeMillis();
+        for (var stream : STREAMS)
+        {
+            try
+            {
+                stream.drain(now);
+            }
+            catch (RuntimeException e)
+            {
+                // Only this stream stops, the others (and the writer thread) carry on.
+                stream.fail(e);
+            }
+            if (stream.isClosed() && stream.isEmpty())
+            {
+                stream.closeFile();
+                STREAMS.remove(stream);
+            }
+        }
+    }
+
+    /**
+     * Holds rows a study produces faster than its stream's ring can take them, e.g. while replaying its history,
+     * and offers them in order as room frees up, so they are not dropped. Called by the producer thread only.
+     */
+    public static class Backlog
+    {
+        private long[] _times = new long[64];
+        private int[] _types = new int[64];
+        private boolean[] _replays = new boolean[64];
+        private double[][] _values = new double[3][64];
+        private int _start = 0;
+        private int _end = 0;
+
+        /**
+         * Offers the row straight to the stream if nothing is waiting and there is room, otherwise queues it
+         * (along with whether the stream is replaying) for a later flush.
+         */
+        public void offer(Stream stream, int type, long time, double v0, double v1, double v2)
+        {
+            if (_start == _end && stream.remaining() > 0)
+            {
+                stream.offer(type, time, v0, v1, v2);
+                return;
+            }
+            if (_end == _times.length)
+            {
+                int size = _end - _start;
+                int capacity = Math.max(64, size * 2);
+                _times = Arrays.copyOfRange(_times, _start, _start + capacity);
+                _types = Arrays.copyOfRange(_types, _start, _start + capacity);
+                _replays = Arrays.copyOfRange(_replays, _start, _start + capacity);
+                for (int c = 0; c < _values.length; c++)
+                    _values[c] = Arrays.copyOfRange(_values[c], _start, _start + capacity);
+                _start = 0;
+                _end = size;
+            }
+            _times[_end] = time;
+            _types[_end] = type;
+            _replays[_end] = stream._replay;
+            _values[0][_end] = v0;
+            _values[1][_end] = v1;
+            _values[2][_end] = v2;
+            _end++;
+        }
+
+        /**
+         * Offers as many queued rows as the stream has room for, the rest wait for the next flush.
+         */
+        public void flush(Stream stream)
+        {
+            int n = Math.min(_end - _start, stream.remaining());
+            if (n == 0)
+                return;
+            boolean replay = stream._replay;
+            for (int i = 0; i < n; i++, _start++)
+            {
+                stream.setReplay(_replays[_start]);
+                stream.offer(_types[_start], _times[_start], _values[0][_start], _values[1][_start], _values[2][_start]);
+            }
+            stream.setReplay(replay);
+            if (_start == _end)
+                clear();
+        }
+
+        public void clear()
+        {
+            _start = 0;
+            _end = 0;
+        }
+    }
+
+    public static class Stream
+    {
+        final private Path _dir;
+        final private String _name;
+        final private String[] _columns;
+        final private int _mask;
+        final private long[] _times;
+        final private int[] _types;
+        final private boolean[] _replays;
+        final private double[][] _values;
+        private final AtomicLong _head = new AtomicLong(); // Next slot to write to the file, only written by the writer.
+        private final AtomicLong _tail = new AtomicLong(); // Next slot to fill, only written by the producer.
+        private volatile long _dropped = 0;
+        private volatile boolean _closed = false;
+        private volatile String _error = null;
+        private boolean _replay = false;
+
+        // Writer state.
+        final private long[] _lastTimes = new long[MAX_TYPES];
+        final private boolean[] _keep;
+        private boolean _resumed = false;
+        private ByteBuffer _buffer;
+        private FileChannel _channel;
+        private String _day;
+        private long _fileBytes;
+        private long _lastSync;
+
+        Stream(Path dir, String name, String[] columns)
+        {
+            _dir = dir;
+            _name = name;
+            _columns = columns;
+            _mask = RING_CAPACITY - 1;
+            _times = new long[RING_CAPACITY];
+            _types = new int[RING_CAPACITY];
+            _replays = new boolean[RING_CAPACITY];
+            _values = new double[columns.length][RING_CAPACITY];
+            _keep = new boolean[RING_CAPACITY];
+            Arrays.fill(_lastTimes, Long.MIN_VALUE);
+        }
+
+        public Path getDirectory()
+        {
+            return _dir;
+        }
+
+        public long getDropped()
+        {
+            return _dropped;
+        }
+
+        /**
+         * Why the stream stopped writing, or null.
+         */
+        public String getError()
+        {
+            return _error;
+        }
+
+        /**
+         * Rows offered while replaying (recalculating history) are also skipped if they are at the time of the last
+         * row written for their type, which was written before. Outside a replay several rows of a type can share a time.
+         * Called by the producer thread only.
+         */
+        public void setReplay(boolean replay)
+        {
+            _replay = replay;
+        }
+
+        /**
+         * Number of rows that can be offered before the ring is full, so that a study exporting from its own
+         * history can stop and carry on after the next drain rather than have rows dropped.
+         */
+        public int remaining()
+        {
+            if (_closed || _error != null)
+                return 0;
+            return RING_CAPACITY - (int)(_tail.get() - _head.get());
+        }
+
+        /**
+         * Called by the producer thread only. Values beyond the stream's columns are ignored.
+         * @param type 0 to MAX_TYPES - 1
+         */
+        public boolean offer(int type, long time, double v0, double v1, double v2)
+        {
+            if (type < 0 || type >= MAX_TYPES)
+                throw new IllegalArgumentException("Row type " + type + " is not 0 to " + (MAX_TYPES - 1));
+            if (_closed || _error != null)
+                return false;
+            long tail = _tail.get();
+            if (tail - _head.get() > _mask)
+            {
+                _dropped++;
+                return false;
+            }
+
+            int slot = (int)(tail & _mask);
+            _times[slot] = time;
+            _types[slot] = type;
+            _replays[slot] = _replay;
+            int n = _values.length;
+            if (n > 0) _values[0][slot] = v0;
+            if (n > 1) _values[1][slot] = v1;
+            if (n > 2) _values[2][slot] = v2;
+            // Publish the slot after it has been written.
+            _tail.lazySet(tail + 1);
+            return true;
+        }
+
+        /**
+         * Stops accepting rows. Rows already queued are still written before the file is closed.
+         */
+        public void close()
+        {
+            _closed = true;
+        }
+
+        boolean isClosed()
+        {
+            return _closed;
+        }
+
+        boolean isEmpty()
+        {
+            return _head.get() == _tail.get();
+        }
+
+        /**
+         * Called by the writer thread only. Writes the queued rows that are not already in the files as one block.
+         */
+        void drain(long now)
+        {
+            if (_error != null)
+            {
+                _head.lazySet(_tail.get());
+                return;
+            }
+            try
+            {
+                if (!_resumed)
+                {
+                    resume();
+                    _resumed = true;
+                }
+
+                long head = _head.get();
+                long tail = _tail.get();
+                int rows = 0;
+                for (long i = head; i < tail; i++)
+                {
+                    int slot = (int)(i & _mask);
+                    int type = _types[slot];
+                    long last = _lastTimes[type];
+                    boolean keep = _times[slot] > last || (_times[slot] == last && !_replays[slot]);
+                    _keep[(int)(i - head)] = keep;
+                    if (keep)
+                    {
+                        _lastTimes[type] = _times[slot];
+                        rows++;
+                    }
+                }
+
+                if (rows > 0)
+                {
+                    var buffer = blockBuffer(rows);
+                    buffer.putInt(rows);
+                    for (long i = head; i < tail; i++)
+                    {
+                        if (_keep[(int)(i - head)])
+                            buffer.putLong(_times[(int)(i & _mask)]);
+                    }
+                    for (long i = head; i < tail; i++)
+                    {
+                        if (_keep[(int)(i - head)])
+                            buffer.putInt(_types[(int)(i & _mask)]);
+                    }
+                    for (var column : _values)
+                    {
+                        for (long i = head; i < tail; i++)
+                        {
+                            if (_keep[(int)(i - head)])
+                                buffer.putDouble(column[(int)(i & _mask)]);
+                        }
+                    }
+                }
+                // The rows have been copied, so release the slots back to the producer before writing.
+                _head.lazySet(tail);
+
+                if (rows > 0)
+                {
+                    openFile(now);
+                    write(_buffer.flip());
+                }
+
+                if (_channel != null && now - _lastSync >= FSYNC_MILLIS)
+                {
+                    _channel.force(false);
+                    _lastSync = now;
+                    if (_fileBytes >= ROTATE_BYTES || !DAY_FORMAT.format(Instant.ofEpochMilli(now)).equals(_day))
+                        closeFile();
+                }
+            }
+            catch (IOException e)
+            {
+                fail(e);
+            }
+        }
+
+        /**
+         * Called by the writer thread only. Stops the stream, the error is reported by the study.
+         */
+        void fail(Exception e)
+        {
+            _error = e.toString();
+            closeFile();
+        }
+
+        private ByteBuffer blockBuffer(int rows)
+        {
+            int size = 4 + rows * (8 + 4 + 8 * _values.length);
+            if (_buffer == null || _buffer.capacity() < size)
+                _buffer = ByteBuffer.allocateDirect(Math.max(size, 64 * 1024));
+            _buffer.clear();
+            return _buffer;
+        }
+
+        /**
+         * Takes the last time written for each type from the newest existing file.
+         * Reading stops at the first block that can't be one of ours, as it would for a block cut short.
+         */
+        private void resume() throws IOException
+        {
+            if (!Files.isDirectory(_dir))
+                return;
+            Path newest = null;
+            long newestKey = -1;
+            try (var files = Files.newDirectoryStream(_dir, _name + "-*" + EXTENSION))
+            {
+                for (var file : files)
+                {
+                    long key = fileKey(file.getFileName().toString());
+                    if (key > newestKey)
+                    {
+                        newest = file;
+                        newestKey = key;
+                    }
+                }
+            }
+            if (newest == null)
+                return;
+
+            try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(newest), 64 * 1024)))
+            {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                    return;
+                int columns = in.readInt();
+                if (columns < 0 || columns > 3)
+                    return;
+                for (int c = 0; c < columns; c++)
+                    in.skipNBytes(in.readUnsignedShort());
+                var times = new long[RING_CAPACITY];
+                while (true)
+                {
+                    int rows = in.readInt();
+                    // A block never holds more rows than the ring.
+                    if (rows <= 0 || rows > RING_CAPACITY)
+                        return;
+                    for (int r = 0; r < rows; r++)
+                        times[r] = in.readLong();
+                    for (int r = 0; r < rows; r++)
+                    {
+                        int type = in.readInt();
+                        if (type < 0 || type >= MAX_TYPES)
+                            return;
+                        _lastTimes[type] = Math.max(_lastTimes[type], times[r]);
+                    }
+                    in.skipNBytes(8L * rows * columns);
+                }
+            }
+            catch (EOFException e)
+            {
+                // End of the file, or a block cut short.
+            }
+        }
+
+        /**
+         * Orders file names by day and then sequence number, -1 if the name is not one of ours.
+         */
+        private long fileKey(String fileName)
+        {
+            try
+            {
+                var parts = fileName.substring(_name.length() + 1, fileName.length() - EXTENSION.length()).split("-");
+                return Long.parseLong(parts[0]) * 100_000 + Integer.parseInt(parts[1]);
+            }
+            catch (RuntimeException e)
+            {
+                return -1;
+            }
+        }
+
+        private void openFile(long now) throws IOException
+        {
+            if (_channel != null)
+                return;
+            Files.createDirectories(_dir);
+            _day = DAY_FORMAT.format(Instant.ofEpochMilli(now));
+            Path path;
+            int n = 0;
+            do
+                path = _dir.resolve(_name + "-" + _day + "-" + (n++) + EXTENSION);
+            while (Files.exists(path));
+            _channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            _fileBytes = 0;
+            _lastSync = now;
+
+            var names = new byte[_columns.length][];
+            int size = 12;
+            for (int i = 0; i < names.length; i++)
+            {
+                names[i] = _columns[i].getBytes(StandardCharsets.UTF_8);
+                size += 2 + names[i].length;
+            }
+            var header = ByteBuffer.allocate(size);
+            header.putInt(MAGIC).putInt(VERSION).putInt(_columns.length);
+            for (var bytes : names)
+                header.putShort((short)bytes.length).put(bytes);
+            write(header.flip());
+        }
+
+        private void write(ByteBuffer buffer) throws IOException
+        {
+            while (buffer.hasRemaining())
+                _fileBytes += _channel.write(buffer);
+        }
+
+        void closeFile()
+        {
+            if (_channel == null)
+                return;
+            try
+            {
+                _channel.force(false);
+                _channel.close();
+            }
+            catch (IOException e)
+            {
+                _error = e.toString();
+            }
+            _channel = null;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+import com.motivewave.platform.sdk.common.BarSize;
+import com.motivewave.platform.sdk.common.DataSeries;
+import com.motivewave.platform.sdk.common.Instrument;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * Volume imbalance open/fill events detected once on a base series (e.g. 1-minute bars) and shared by every
+ * study instance that uses the same instrument and base bar size, whatever the chart's own bar size.
+ * Events are stored in primitive arrays in start time order, with prices in ticks, so they can be looked up
+ * by time and projected onto any chart bar size.
+ * Each getter locks the index on its own, so a caller reading several events holds the index's lock for the whole
+ * read, otherwise another chart could rebuild it in between. An index is dropped once the last study using it releases it.
+ */
+public class ImbalanceEventIndex
+{
+    public final static long NOT_FILLED = Long.MAX_VALUE;
+    final static int MIN_TICKS = 1;
+
+    private static final HashMap<String, ImbalanceEventIndex> _cache = new HashMap<>();
+
+    final private String _key;
+    final private TickPrice _prices;
+    private int _refs = 0; // Only used while holding _cache.
+    private long[] _startTimes = new long[64];
+    private boolean[] _bullish = new boolean[64];
+    private long[] _highs = new long[64];
+    private long[] _lows = new long[64];
+    private long[] _fillTimes = new long[64];
+    private int _size = 0;
+
+    // Open events ordered by the edge that fills them, so each bar only visits the events it fills.
+    final private TreeSet<Integer> _openBullish = new TreeSet<>(Comparator.comparingLong((Integer e) -> _lows[e]).thenComparingInt(e -> e));
+    final private TreeSet<Integer> _openBearish = new TreeSet<>(Comparator.comparingLong((Integer e) -> _highs[e]).thenComparingInt(e -> e));
+
+    private long _firstTime = 0;
+    private long _lastTime = 0;
+    private int _generation = 0;
+
+    ImbalanceEventIndex(TickPrice prices)
+    {
+        this(null, prices);
+    }
+
+    private ImbalanceEventIndex(String key, TickPrice prices)
+    {
+        _key = key;
+        _prices = prices;
+    }
+
+    /**
+     * Returns the shared index for the instrument and base bar size, which must be released once it is no longer used.
+     * @param current the index the caller holds, kept if it is already the right one and released otherwise (may be null)
+     */
+    public static ImbalanceEventIndex acquire(ImbalanceEventIndex current, Instrument instrument, BarSize barSize)
+    {
+        String key = instrument.getSymbol() + ":" + barSize.getKey();
+        if (current != null && key.equals(current._key))
+            return current;
+        release(current);
+        synchronized (_cache)
+        {
+            var index = _cache.computeIfAbsent(key, k -> new ImbalanceEventIndex(k, TickPrice.of(instrument)));
+            index._refs++;
+            return index;
+        }
+    }
+
+    /**
+     * Drops the index from the cache when the last study using it releases it. Does nothing for null.
+     */
+    public static void release(ImbalanceEventIndex index)
+    {
+        if (index == null || index._key == null)
+            return;
+        synchronized (_cache)
+        {
+            if (--index._refs == 0)
+                _cache.remove(index._key);
+        }
+    }
+
+    /**
+     * Incremented whenever the index is rebuilt from scratch, at which point previously returned event indices are no longer valid.
+     */
+    public synchronized int getGeneration()
+    {
+        return _generation;
+    }
+
+    public synchronized int size()
+    {
+        return _size;
+    }
+
+    public synchronized long getStartTime(int idx)
+    {
+        return _startTimes[idx];
+    }
+
+    public synchronized boolean isBullish(int idx)
+    {
+        return _bullish[idx];
+    }
+
+    public synchronized long getHighTicks(int idx)
+    {
+        return _highs[idx];
+    }
+
+    public synchronized long getLowTicks(int idx)
+    {
+        return _lows[idx];
+    }
+
+    public synchronized long getFillTime(int idx)
+    {
+        return _fillTimes[idx];
+    }
+
+    /**
+     * Returns the index of the first event starting at or after the given time.
+     */
+    public synchronized int findIndex(long time)
+    {
+        int idx = Arrays.binarySearch(_startTimes, 0, _size, time);
+        return idx >= 0 ? idx : -idx - 1;
+    }
+
+    /**
+     * Processes any completed bars of the base series that have not been seen yet.
+     * A series that has not reached the last processed bar yet is ignored, since another chart may be ahead of it.
+     * The index is only rebuilt when the series has earlier history or no longer has a bar at the last processed time.
+     */
+    public synchronized void update(DataSeries series)
+    {
+        if (series == null || series.size() < 2)
+            return;
+
+        int start = 1;
+        if (_lastTime != 0)
+        {
+            if (series.getStartTime(0) >= _firstTime && series.getStartTime(series.size() - 1) < _lastTime)
+                return;
+            int lastIdx = series.findIndex(_lastTime);
+            if (series.getStartTime(0) < _firstTime || lastIdx < 0 || series.getStartTime(lastIdx) != _lastTime)
+                clear();
+            else
+                start = lastIdx + 1;
+        }
+
+        for (int i = start; i < series.size(); i++)
+        {
+            // Only completed bars are processed, so events never need to be revised.
+            if (!series.isBarComplete(i))
+                break;
+            if (_firstTime == 0)
+                _firstTime = series.getStartTime(i - 1);
+
+            detectFilled(series, i);
+            detectUnfilled(series, i);
+            _lastTime = series.getStartTime(i);
+        }
+    }
+
+    private void clear()
+    {
+        _size = 0;
+        _openBullish.clear();
+        _openBearish.clear();
+        _firstTime = 0;
+        _lastTime = 0;
+        _generation++;
+    }
+
+    /**
+     * Same rule as the chart's own detection: a gap is filled once a bar reaches its far edge (inclusive),
+     * the low edge of a bullish gap or the high edge of a bearish one. Touching the near edge does not fill it.
+     */
+    private void detectFilled(DataSeries series, int idx)
+    {
+        long high = _prices.toTicks(series.getHigh(idx));
+        long low = _prices.toTicks(series.getLow(idx));
+        long time = series.getStartTime(idx);
+        while (!_openBullish.isEmpty() && low <= _lows[_openBullish.last()])
+            _fillTimes[_openBullish.pollLast()] = time;
+        while (!_openBearish.isEmpty() && high >= _highs[_openBearish.first()])
+            _fillTimes[_openBearish.pollFirst()] = time;
+    }
+
+    private void detectUnfilled(DataSeries series, int idx)
+    {
+        int prevIdx = idx - 1;
+        long prevOpen = _prices.toTicks(series.getOpen(prevIdx));
+        long prevClose = _prices.toTicks(series.getClose(prevIdx));
+        long currOpen = _prices.toTicks(series.getOpen(idx));
+        long currClose = _prices.toTicks(series.getClose(idx));
+        if (Math.abs(currOpen - prevClose) < MIN_TICKS)
+            return;
+
+        boolean prevBullish = prevClose >= prevOpen;
+        boolean currBullish = currClose >= currOpen;
+        if (prevBullish && currBullish && currOpen > prevClose)
+            add(series.getStartTime(idx), true, currOpen, prevClose);
+        else if (!prevBullish && !currBullish && currOpen < prevClose)
+            add(series.getStartTime(idx), false, prevClose, currOpen);
+    }
+
+    private void add(long startTime, boolean bullish, long high, long low)
+    {
+        if (_size == _startTimes.length)
+        {
+            int capacity = _size * 2;
+            _startTimes = Arrays.copyOf(_startTimes, capacity);
+            _bullish = Arrays.copyOf(_bullish, capacity);
+            _highs = Arrays.copyOf(_highs, capacity);
+            _lows = Arrays.copyOf(_lows, capacity);
+            _fillTimes = Arrays.copyOf(_fillTimes, capacity);
+        }
+
+        _startTimes[_size] = startTime;
+        _bullish[_size] = bullish;
+        _highs[_size] = high;
+        _lows[_size] = low;
+        _fillTimes[_size] = NOT_FILLED;
+        (bullish ? _openBullish : _openBearish).add(_size);
+        _size++;
+    }
+}
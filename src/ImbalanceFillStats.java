@@ -0,0 +1,145 @@
+import java.util.Arrays;
+
+/**
+ * Fill statistics for volume imbalances, bucketed by direction and gap size in ticks.
+ * Bars-to-fill are kept as fixed-size histograms, so recording is O(1) and memory does not grow with history.
+ */
+public class ImbalanceFillStats
+{
+    public final static int BULLISH = 0;
+    public final static int BEARISH = 1;
+    // Gaps of MAX_TICKS or more share the last bucket.
+    public final static int MAX_TICKS = 20;
+    // Fills taking MAX_BARS or more bars share the last histogram bin.
+    final static int MAX_BARS = 500;
+
+    final private int[][] _opened = new int[2][MAX_TICKS + 1];
+    final private int[][] _filled = new int[2][MAX_TICKS + 1];
+    final private int[][][] _barsToFill = new int[2][MAX_TICKS + 1][];
+
+    public static int bucket(int ticks)
+    {
+        return Math.max(0, Math.min(ticks, MAX_TICKS));
+    }
+
+    public void clear()
+    {
+        for (int dir = 0; dir < 2; dir++)
+        {
+            Arrays.fill(_opened[dir], 0);
+            Arrays.fill(_filled[dir], 0);
+            Arrays.fill(_barsToFill[dir], null);
+        }
+    }
+
+    public void onOpen(int direction, int ticks)
+    {
+        _opened[direction][bucket(ticks)]++;
+    }
+
+    /**
+     * Reverses an onOpen(), for an imbalance on a developing bar that turned out not to be one.
+     */
+    public void onCancel(int direction, int ticks)
+    {
+        _opened[direction][bucket(ticks)]--;
+    }
+
+    public void onFill(int direction, int ticks, int bars)
+    {
+        int b = bucket(ticks);
+        _filled[direction][b]++;
+        if (_barsToFill[direction][b] == null)
+            _barsToFill[direction][b] = new int[MAX_BARS + 1];
+        _barsToFill[direction][b][Math.max(0, Math.min(bars, MAX_BARS))]++;
+    }
+
+    public int getOpened(int direction, int ticks)
+    {
+        return _opened[direction][bucket(ticks)];
+    }
+
+    public int getOpened(int direction)
+    {
+        int total = 0;
+        for (int n : _opened[direction])
+            total += n;
+        return total;
+    }
+
+    public int getFilled(int direction, int ticks)
+    {
+        return _filled[direction][bucket(ticks)];
+    }
+
+    public int getFilled(int direction)
+    {
+        int total = 0;
+        for (int n : _filled[direction])
+            total += n;
+        return total;
+    }
+
+    /**
+     * Percentage of opened imbalances of this direction and size that have been filled, or null if none were seen.
+     */
+    public Double getFillRate(int direction, int ticks)
+    {
+        int opened = getOpened(direction, ticks);
+        if (opened <= 0)
+            return null;
+        return 100.0 * getFilled(direction, ticks) / opened;
+    }
+
+    public Double getFillRate(int direction)
+    {
+        int opened = getOpened(direction);
+        if (opened <= 0)
+            return null;
+        return 100.0 * getFilled(direction) / opened;
+    }
+
+    public Integer getMedianBarsToFill(int direction, int ticks)
+    {
+        return median(_barsToFill[direction][bucket(ticks)], null);
+    }
+
+    public Integer getMedianBarsToFill(int direction)
+    {
+        return median(null, _barsToFill[direction]);
+    }
+
+    private static Integer median(int[] histogram, int[][] histograms)
+    {
+        int total = 0;
+        for (int bars = 0; bars <= MAX_BARS; bars++)
+            total += count(histogram, histograms, bars);
+        if (total == 0)
+            return null;
+
+        int seen = 0;
+        for (int bars = 0; bars <= MAX_BARS; bars++)
+        {
+            seen += count(histogram, histograms, bars);
+            if (2 * seen >= total)
+                return bars;
+        }
+        return MAX_BARS;
+    }
+
+    private static int count(int[] histogram, int[][] histograms, int bars)
+    {
+        if (histogram != null)
+            return histogram[bars];
+        int n = 0;
+        if (histograms != null)
+        {
+            for (var h : histograms)
+            {
+                if (h != null)
+                    n += h[bars];
+            }
+        }
+        return n;
+    }
+}
@@ -15,9 +15,16 @@ import com.motivewave.platform.sdk.study.Study;
 import com.motivewave.platform.sdk.study.StudyHeader;
 
 import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -35,20 +42,42 @@ public class InitialBalance extends Study
 {
     class InitialBalanceRegion extends Figure
     {
-        final private Instrument _instrument;
+        final private TickPrice _prices;
+        final private String _labelPrefix;
         final private long _startTime;
         final private long _endTime;
-        private Double _high = null;
-        private Double _low = null;
+        // In ticks. Written by the calculation thread while the chart paints, so kept volatile rather than locked.
+        private volatile long _highTicks = TickPrice.NONE;
+        private volatile long _lowTicks = TickPrice.NONE;
         private boolean _showRange;
 
-        private boolean _isConfirmed;
+        private volatile boolean _isConfirmed;
+
+        private volatile long _rangeEndTime;
+
+        private Double _rangeMean = null;
+        private Double _rangeStd = null;
+        private Double _rangeRank = null;
+        private int _rangeSessions = 0;
+
+        // Extension (half-)levels touched after the IB period, with the time each was first reached.
+        private int _upLevelsHit = 0;
+        private int _downLevelsHit = 0;
+        private long[] _upHitTimes = null;
+        private long[] _downHitTimes = null;
+        private ExtensionStats _priorExtensionStats = null;
 
-        private long _rangeEndTime;
+        // Rendered image of the confirmed region and the geometry it was rendered for.
+        private SoftReference<BufferedImage> _cachedImage = null;
+        private int[] _cacheKey = null;
+        private long _cachedBytes = 0;
 
-        public InitialBalanceRegion(Instrument instrument, long startTime, long endTime)
+        final private LazyPopup _popup = new LazyPopup(this::popupMessage);
+
+        public InitialBalanceRegion(TickPrice prices, String labelPrefix, long startTime, long endTime)
         {
-            _instrument = instrument;
+            _prices = prices;
+            _labelPrefix = labelPrefix;
             _startTime = startTime;
             _endTime = endTime;
             _rangeEndTime = endTime;
@@ -68,29 +97,40 @@ public class InitialBalance extends Study
 
         public Double getHigh()
         {
-            return _high;
+            return isUpdated() ? _prices.toPrice(_highTicks) : null;
         }
 
         public void setHigh(Double high)
         {
-            _high = high;
+            _highTicks = high != null ? _prices.toTicks(high) : TickPrice.NONE;
         }
 
         public Double getMid()
         {
-            if (_high != null && _low != null)
-                return _instrument.round((_high + _low) / 2.0);
-            return null;
+            return isUpdated() ? _prices.toPrice(TickPrice.mid(_lowTicks, _highTicks)) : null;
         }
 
         public Double getLow()
         {
-            return _low;
+            return isUpdated() ? _prices.toPrice(_lowTicks) : null;
         }
 
         public void setLow(Double low)
         {
-            _low = low;
+            _lowTicks = low != null ? _prices.toTicks(low) : TickPrice.NONE;
+        }
+
+        public long getRangeTicks()
+        {
+            return isUpdated() ? _highTicks - _lowTicks : 0;
+        }
+
+        /**
+         * The IB range as a price difference.
+         */
+        public Double getRange()
+        {
+            return isUpdated() ? _prices.toPrice(_highTicks - _lowTicks) : null;
         }
 
         public boolean isShowRange()
@@ -105,7 +145,7 @@ public class InitialBalance extends Study
 
         public boolean isUpdated()
         {
-            return (_high != null && _low != null);
+            return (_highTicks != TickPrice.NONE && _lowTicks != TickPrice.NONE);
         }
 
         public boolean isConfirmed()
@@ -120,9 +160,41 @@ public class InitialBalance extends Study
 
             _isConfirmed = isConfirmed;
 
-            // Set PopUp message, now that IB values are confirmed.
-            if (isUpdated())
-                setPopupMessage("IB High: " + format(_high) + "\nIB Mid: " + format(getMid()) + "\nIB Low: " + format(_low) + "\nIB 𝚫: " + format(_high - _low));
+            // The popup message is built when first shown, now that IB values are confirmed.
+            _popup.invalidate();
+        }
+
+        private String popupMessage()
+        {
+            if (!_isConfirmed || !isUpdated())
+                return null;
+            String msg = _labelPrefix + " High: " + format(getHigh()) + "\n" + _labelPrefix + " Mid: " + format(getMid()) + "\n" + _labelPrefix + " Low: " + format(getLow()) + "\n" + _labelPrefix + " 𝚫: " + format(getRange());
+            if (_rangeMean != null)
+                msg += "\n" + _labelPrefix + " 𝚫 Avg(" + _rangeSessions + "): " + format(_rangeMean) + " (" + Math.round(_rangeRank) + "th pct)";
+            return msg;
+        }
+
+        public Double getRangeMean()
+        {
+            return _rangeMean;
+        }
+
+        public Double getRangeStd()
+        {
+            return _rangeStd;
+        }
+
+        public Double getRangeRank()
+        {
+            return _rangeRank;
+        }
+
+        public void setRangeStats(Double mean, Double std, Double rank, int sessions)
+        {
+            _rangeMean = mean;
+            _rangeStd = std;
+            _rangeRank = rank;
+            _rangeSessions = sessions;
         }
 
         public long getRangeEndTime()
@@ -135,6 +207,75 @@ public class InitialBalance extends Study
             _rangeEndTime = rangeEndTime;
         }
 
+        public int getUpLevelsHit()
+        {
+            return _upLevelsHit;
+        }
+
+        public int getDownLevelsHit()
+        {
+            return _downLevelsHit;
+        }
+
+        public long getUpHitTime(int level)
+        {
+            return _upHitTimes[level];
+        }
+
+        public long getDownHitTime(int level)
+        {
+            return _downHitTimes[level];
+        }
+
+        public ExtensionStats getPriorExtensionStats()
+        {
+            return _priorExtensionStats;
+        }
+
+        public void setPriorExtensionStats(ExtensionStats priorExtensionStats)
+        {
+            _priorExtensionStats = priorExtensionStats;
+        }
+
+        /**
+         * Feeds a minute bar (in ticks) from after the IB period. Only the next untouched level on each side is compared,
+         * so this is O(1) per bar plus O(1) per level reached. Levels are compared in half ticks, so they are exact.
+         */
+        public void onPostMinuteBar(long time, long lowTicks, long highTicks)
+        {
+            if (!isUpdated() || time < _endTime)
+                return;
+            long range = _highTicks - _lowTicks;
+            if (range <= 0)
+                return;
+
+            while (_upLevelsHit < EXTENSION_STATS_HALF_LEVELS && 2 * highTicks >= 2 * _highTicks + (_upLevelsHit + 1) * range)
+            {
+                if (_upHitTimes == null)
+                    _upHitTimes = new long[EXTENSION_STATS_HALF_LEVELS];
+                _upHitTimes[_upLevelsHit++] = time;
+            }
+            while (_downLevelsHit < EXTENSION_STATS_HALF_LEVELS && 2 * lowTicks <= 2 * _lowTicks - (_downLevelsHit + 1) * range)
+            {
+                if (_downHitTimes == null)
+                    _downHitTimes = new long[EXTENSION_STATS_HALF_LEVELS];
+                _downHitTimes[_downLevelsHit++] = time;
+            }
+        }
+
+        /**
+         * Number of half-levels above (or below) the IB touched by the given time.
+         */
+        public int levelsHitBy(long time, boolean up)
+        {
+            int hit = up ? _upLevelsHit : _downLevelsHit;
+            long[] times = up ? _upHitTimes : _downHitTimes;
+            int n = 0;
+            while (n < hit && times[n] <= time)
+                n++;
+            return n;
+        }
+
         public boolean isTimeInside(long time)
         {
             return (_startTime <= time) && (time < _endTime);
@@ -177,8 +318,8 @@ public class InitialBalance extends Study
                     // Draw region.
                     if (rangeFill != null && rangeFill.isEnabled())
                     {
-                        var topY = ctx.translateValue(_high);
-                        var bottomY = ctx.translateValue(_low);
+                        var topY = ctx.translateValue(getHigh());
+                        var bottomY = ctx.translateValue(getLow());
                         if (x >= leftX && x <= rightX && y >= topY && y <= bottomY)
                             return ;
                     }
@@ -189,7 +330,7 @@ public class InitialBalance extends Study
                 {
                     if (ibHighLine != null && ibHighLine.isEnabled())
                     {
-                        var lineY = ctx.translateValue(_high);
+                        var lineY = ctx.translateValue(getHigh());
                         if (Math.abs(y - lineY) <= (2 * ctx.getTickHeight()))
                             return true;
                     }
@@ -201,7 +342,7 @@ public class InitialBalance extends Study
                     }
                     if (ibLowLine != null && ibLowLine.isEnabled())
                     {
-                        var lineY = ctx.translateValue(_low);
+                        var lineY = ctx.translateValue(getLow());
                         if (Math.abs(y - lineY) <= (2 * ctx.getTickHeight()))
                             return true;
                     }
@@ -210,19 +351,37 @@ public class InitialBalance extends Study
             return false;
         }
 
+        @Override
+        public String getPopupMessage(double x, double y, DrawContext ctx)
+        {
+            return _popup.get();
+        }
+
         public boolean updateRange(double low, double high)
         {
+            return updateRange(_prices.toTicks(low), _prices.toTicks(high));
+        }
+
+        public boolean updateRange(long lowTicks, long highTicks)
+        {
+            if (!isUpdated())
+            {
+                _lowTicks = lowTicks;
+                _highTicks = highTicks;
+                return true;
+            }
+
             boolean updated = false;
 
-            if (low < _low)
+            if (lowTicks < _lowTicks)
             {
-                _low = low;
+                _lowTicks = lowTicks;
                 updated = true;
             }
 
-            if (high > _high)
+            if (highTicks > _highTicks)
             {
-                _high = high;
+                _highTicks = highTicks;
                 updated = true;
             }
 
@@ -246,6 +405,87 @@ public class InitialBalance extends Study
 
             var settings = getSettings();
             var timeframeFill = settings.getColorInfo(TIMEFRAME_FILL);
+
+            if (timeframeFill != null && timeframeFill.isEnabled())
+            {
+                // Draw timeframe.
+                var fill = timeframeFill.getColor();
+                gc.setColor(fill);
+                gc.fillRect(leftX, bounds.y,  rightX - leftX, bounds.height);
+            }
+
+            // Confirmed regions never change, so they are drawn from a cached image where possible.
+            if (_isConfirmed && settings.getBoolean(CACHE_CONFIRMED_REGIONS, true) && !_memory.isAtLeast(MemoryBudget.Step.DROP_SCRATCH)
+                    && drawCached(gc, ctx, leftX, rightX, rangeEndX))
+                return;
+
+            drawRange(gc, ctx, leftX, rightX, bounds.y - CACHE_MARGIN, (int)bounds.getMaxY() + CACHE_MARGIN);
+        }
+
+        /**
+         * Draws a confirmed region from its cached image, rendering the image again only when the zoom level,
+         * price scale or selection has changed. Returns false if the region can't be cached, in which case it must be drawn directly.
+         */
+        private boolean drawCached(Graphics2D gc, DrawContext ctx, int leftX, int rightX, int rangeEndX)
+        {
+            // Labels are pinned to the edges of the chart, so only regions entirely on screen look the same from frame to frame.
+            var bounds = ctx.getBounds();
+            int endX = Math.max(rightX, rangeEndX);
+            if (leftX < bounds.x || endX > bounds.getMaxX())
+                return false;
+
+            long highTicks = _highTicks;
+            long lowTicks = _lowTicks;
+            long extTicks = getSettings().getInteger(NUM_EXTENSION_LEVELS) * (highTicks - lowTicks);
+            int highY = ctx.translateValue(_prices.toPrice(highTicks));
+            int lowY = ctx.translateValue(_prices.toPrice(lowTicks));
+            // The image only covers the extension levels on screen, however many are configured.
+            int topY = Math.max(ctx.translateValue(_prices.toPrice(highTicks + extTicks)), bounds.y) - CACHE_MARGIN;
+            int bottomY = Math.min(ctx.translateValue(_prices.toPrice(lowTicks - extTicks)), (int)bounds.getMaxY()) + CACHE_MARGIN;
+            var transform = gc.getTransform();
+            double scaleX = transform.getScaleX();
+            double scaleY = transform.getScaleY();
+            int w = endX - leftX + 1;
+            int h = bottomY - topY + 1;
+            if (w <= 0 || h <= 0 || w * scaleX * h * scaleY > MAX_CACHE_PIXELS)
+                return false;
+
+            int[] key = {rangeEndX - leftX, rightX - leftX, topY - highY, lowY - highY, bottomY - highY, ctx.isSelected() ? 1 : 0,
+                    (int)Math.round(scaleX * 100), (int)Math.round(scaleY * 100)};
+            var image = _cachedImage != null ? _cachedImage.get() : null;
+            if (image == null || !Arrays.equals(key, _cacheKey))
+            {
+                image = new BufferedImage((int)Math.ceil(w * scaleX), (int)Math.ceil(h * scaleY), BufferedImage.TYPE_INT_ARGB);
+                var g = image.createGraphics();
+                g.setRenderingHints(gc.getRenderingHints());
+                g.scale(scaleX, scaleY);
+                g.translate(-leftX, -topY);
+                drawRange(g, ctx, leftX, rightX, topY, bottomY);
+                g.dispose();
+                _cachedImage = new SoftReference<>(image);
+                _cacheKey = key;
+                long bytes = 4L * image.getWidth() * image.getHeight();
+                _cacheBytes.addAndGet(bytes - _cachedBytes);
+                _cachedBytes = bytes;
+            }
+            gc.drawImage(image, leftX, topY, w, h, null);
+            return true;
+        }
+
+        public void dropCachedImage()
+        {
+            _cachedImage = null;
+            _cacheKey = null;
+            _cacheBytes.addAndGet(-_cachedBytes);
+            _cachedBytes = 0;
+        }
+
+        /**
+         * Draws the range and its lines, with only the extension lines between bandTopY and bandBottomY.
+         */
+        private void drawRange(Graphics2D gc, DrawContext ctx, int leftX, int rightX, int bandTopY, int bandBottomY)
+        {
+            var settings = getSettings();
             var rangeFill = settings.getColorInfo(RANGE_FILL);
             var showDeveloping = settings.getBoolean(SHOW_DEVELOPING_INITIAL_BALANCE);
             var ibHighLine = settings.getPath(IB_HIGH_LINE);
@@ -259,16 +499,13 @@ public class InitialBalance extends Study
             var align = settings.getString(LBL_ALIGN);
             var showValues = settings.getBoolean(LBL_SHOW_VALUES);
 
-            if (timeframeFill != null && timeframeFill.isEnabled())
+            long highTicks = _highTicks;
+            long lowTicks = _lowTicks;
+            if (highTicks != TickPrice.NONE && lowTicks != TickPrice.NONE)
             {
-                // Draw timeframe.
-                var fill = timeframeFill.getColor();
-                gc.setColor(fill);
-                gc.fillRect(leftX, bounds.y,  rightX - leftX, bounds.height);
-            }
+                double high = _prices.toPrice(highTicks);
+                double low = _prices.toPrice(lowTicks);
 
-            if (_low != null && _high != null)
-            {
                 // If enabled, allow region to draw while IB is developing.
                 if (_isConfirmed || showDeveloping)
                 {
@@ -276,8 +513,8 @@ public class InitialBalance extends Study
                     if (rangeFill != null && rangeFill.isEnabled())
                     {
                         int currentTimeX = ctx.translateTime(ctx.getDataContext().getCurrentTime());
-                        var topY = ctx.translateValue(_high);
-                        var bottomY = ctx.translateValue(_low);
+                        var topY = ctx.translateValue(high);
+                        var bottomY = ctx.translateValue(low);
                         var fill = rangeFill.getColor();
                         gc.setColor(fill);
                         gc.fillRect(leftX, topY,  Math.min(rightX, currentTimeX) - leftX, bottomY - topY);
@@ -290,46 +527,51 @@ public class InitialBalance extends Study
                     // Draw IBH/IBL lines.
                     if (ibHighLine != null && ibHighLine.isEnabled())
                     {
-                        drawLine(gc, ctx, ibHighLine, font, align, _high, "IB High", showValues);
+                        drawLine(gc, ctx, ibHighLine, font, align, high, _labelPrefix + " High", showValues);
                     }
                     if (ibMidLine != null && ibMidLine.isEnabled())
                     {
-                        drawLine(gc, ctx, ibMidLine, font, align, round((_low + _high) / 2.0), "IB Mid", showValues);
+                        drawLine(gc, ctx, ibMidLine, font, align, _prices.toPrice(TickPrice.mid(lowTicks, highTicks)), _labelPrefix + " Mid", showValues);
                     }
                     if (ibLowLine != null && ibLowLine.isEnabled())
                     {
-                        drawLine(gc, ctx, ibLowLine, font, align, _low, "IB Low", showValues);
+                        drawLine(gc, ctx, ibLowLine, font, align, low, _labelPrefix + " Low", showValues);
                     }
 
-                    // Draw IBH/IBL lines.
-                    if (numExtLevels > 0)
+                    // Draw the extension lines between bandTopY and bandBottomY, each half level h is h x ½IB𝚫 beyond the IBH/IBL.
+                    long rangeTicks = highTicks - lowTicks;
+                    if (numExtLevels > 0 && rangeTicks > 0)
                     {
-                        double ibPriceRange = _high - _low;
-                        double ibHalfPriceRange = ibPriceRange / 2.0;
-                        for (int i = 0; i < numExtLevels; i++)
+                        // Extend the band by a tick either way, so lines on its edges are not lost to rounding.
+                        long topTicks = _prices.toTicks(ctx.translate2Value(bandTopY)) + 1;
+                        long bottomTicks = _prices.toTicks(ctx.translate2Value(bandBottomY)) - 1;
+                        int maxHalfLevel = 2 * numExtLevels;
+
+                        if (ibHighExtLine != null && ibHighExtLine.isEnabled())
                         {
-                            // Draw high extension line
-                            if (ibHighExtLine != null && ibHighExtLine.isEnabled())
+                            long first = Math.max(1, Math.ceilDiv(2 * (bottomTicks - highTicks), rangeTicks));
+                            long last = Math.min(maxHalfLevel, Math.floorDiv(2 * (topTicks - highTicks), rangeTicks));
+                            for (long h = first; h <= last; h++)
                             {
-                                drawLine(gc, ctx, ibHighExtLine, font, align, _high + (i + 1) * ibPriceRange, "IB High + " + (i+1) + "xIB𝚫", showValues);
-
-                                // Draw high extension mid line
-                                if (ibMidExtLine != null && ibMidExtLine.isEnabled())
-                                {
-                                    drawLine(gc, ctx, ibMidExtLine, font, align, _high + (i * ibPriceRange) + ibHalfPriceRange, "IB High + " + (i>0?i:"") + "½xIB𝚫", showValues);
-                                }
+                                long k = h / 2;
+                                if (h % 2 == 0)
+                                    drawLine(gc, ctx, ibHighExtLine, font, align, _prices.toPrice(highTicks + k * rangeTicks), _labelPrefix + " High + " + k + "xIB𝚫", showValues);
+                                else if (ibMidExtLine != null && ibMidExtLine.isEnabled())
+                                    drawLine(gc, ctx, ibMidExtLine, font, align, _prices.toPriceFromHalfTicks(2 * highTicks + h * rangeTicks), _labelPrefix + " High + " + (k > 0 ? k : "") + "½xIB𝚫", showValues);
                             }
+                        }
 
-                            // Draw low extension line
-                            if (ibLowExtLine != null && ibLowExtLine.isEnabled())
+                        if (ibLowExtLine != null && ibLowExtLine.isEnabled())
+                        {
+                            long first = Math.max(1, Math.ceilDiv(2 * (lowTicks - topTicks), rangeTicks));
+                            long last = Math.min(maxHalfLevel, Math.floorDiv(2 * (lowTicks - bottomTicks), rangeTicks));
+                            for (long h = first; h <= last; h++)
                             {
-                                drawLine(gc, ctx, ibLowExtLine, font, align, _low - (i + 1) * ibPriceRange, "IB Low - " + (i+1) + "xIB𝚫", showValues);
-
-                                // Draw low extension mid line
-                                if (ibMidExtLine != null && ibMidExtLine.isEnabled())
-                                {
-                                    drawLine(gc, ctx, ibMidExtLine, font, align,  _low - (i * ibPriceRange) - ibHalfPriceRange, "IB Low - " + (i>0?i:"") + "½xIB𝚫", showValues);
-                                }
+                                long k = h / 2;
+                                if (h % 2 == 0)
+                                    drawLine(gc, ctx, ibLowExtLine, font, align, _prices.toPrice(lowTicks - k * rangeTicks), _labelPrefix + " Low - " + k + "xIB𝚫", showValues);
+                                else if (ibMidExtLine != null && ibMidExtLine.isEnabled())
+                                    drawLine(gc, ctx, ibMidExtLine, font, align, _prices.toPriceFromHalfTicks(2 * lowTicks - h * rangeTicks), _labelPrefix + " Low - " + (k > 0 ? k : "") + "½xIB𝚫", showValues);
                             }
                         }
                     }
@@ -413,10 +655,605 @@ public class InitialBalance extends Study
         }
     }
 
+    class InitialBalanceWindow
+    {
+        final private int _number;
+        final private Instrument _instrument;
+        final private TickPrice _prices;
+        final private TimeZone _timeZone;
+        final private TimeFrame _timeFrame;
+        final private String _labelPrefix;
+        final private Values _highValue;
+        final private Values _midValue;
+        final private Values _lowValue;
+        final private ArrayList<InitialBalanceRegion> _regions = new ArrayList<>();
+        private SessionCalendar _calendar;
+        private RollingStats _rangeStats;
+        private ExtensionStats _extensionStats;
+        private int _sessionCursor;
+        private int _barCursor;
+        private boolean _live;
+        private long _exportedTime = Long.MIN_VALUE;
+        // Start time of the last session added to the extension stats.
+        private long _countedTime = Long.MIN_VALUE;
+
+        /**
+         * @param number 1 for the primary timeframe, 2 and 3 for the others
+         */
+        public InitialBalanceWindow(int number, Instrument instrument, TimeZone timeZone, TimeFrame timeFrame, String labelPrefix, Values highValue, Values midValue, Values lowValue)
+        {
+            _number = number;
+            _instrument = instrument;
+            _prices = TickPrice.of(instrument);
+            _timeZone = timeZone;
+            _timeFrame = timeFrame;
+            _labelPrefix = labelPrefix;
+            _highValue = highValue;
+            _midValue = midValue;
+            _lowValue = lowValue;
+            _sessionCursor = 0;
+            _barCursor = 0;
+            _live = false;
+        }
+
+        public TimeFrame getTimeFrame()
+        {
+            return _timeFrame;
+        }
+
+        public String getLabelPrefix()
+        {
+            return _labelPrefix;
+        }
+
+        public ArrayList<InitialBalanceRegion> getRegions()
+        {
+            return _regions;
+        }
+
+        /**
+         * Once published, regions created by streaming updates are added to the chart's figures straight away.
+         */
+        public void setLive(boolean live)
+        {
+            _live = live;
+        }
+
+        public RollingStats getRangeStats()
+        {
+            return _rangeStats;
+        }
+
+        public void setRangeStats(RollingStats rangeStats)
+        {
+            _rangeStats = rangeStats;
+        }
+
+        public ExtensionStats getExtensionStats()
+        {
+            return _extensionStats;
+        }
+
+        public void setExtensionStats(ExtensionStats extensionStats)
+        {
+            _extensionStats = extensionStats;
+        }
+
+        /**
+         * Makes sure the session calendar covers the given time range, extending it if required.
+         */
+        public void ensureCalendar(long fromTime, long toTime)
+        {
+            if (_calendar != null && _calendar.size() > 0 &&
+                    _calendar.getStartTime(0) <= fromTime && _calendar.getEndTime(_calendar.size() - 1) >= toTime)
+                return;
+
+            if (_calendar != null && _calendar.size() > 0)
+                fromTime = Math.min(fromTime, _calendar.getStartTime(0));
+            _calendar = SessionCalendar.get(_timeZone, _timeFrame.getStartTime(), _timeFrame.getEndTime(), fromTime, toTime);
+            _sessionCursor = _regions.isEmpty() ? 0 : _calendar.findIndex(_regions.getLast().getStartTime());
+        }
+
+        public void addRegion(InitialBalanceRegion region)
+        {
+            // Regions are added in time order, so the previous region's range ends where this one starts.
+            if (!_regions.isEmpty())
+                _regions.getLast().setRangeEndTime(region.getStartTime());
+            if (_extensionStats != null)
+                region.setPriorExtensionStats(_extensionStats.copy());
+            _regions.add(region);
+        }
+
+        /**
+         * Called with the first minute bar of a session. Only now is the session before it complete, so its
+         * extension hits are counted here rather than when the (possibly upcoming) region was added.
+         */
+        private void startSession(InitialBalanceRegion region)
+        {
+            if (_extensionStats == null)
+                return;
+            for (int i = _regions.size() - 1; i >= 0; i--)
+            {
+                var prevRegion = _regions.get(i);
+                if (prevRegion.getStartTime() >= region.getStartTime() || !prevRegion.isUpdated())
+                    continue;
+                if (prevRegion.getStartTime() > _countedTime)
+                {
+                    _extensionStats.add(prevRegion);
+                    _countedTime = prevRegion.getStartTime();
+                }
+                break;
+            }
+            region.setPriorExtensionStats(_extensionStats.copy());
+        }
+
+        /**
+         * @return the latest region starting at or before time, skipping the upcoming one, or null if there is none
+         */
+        private InitialBalanceRegion findStartedRegion(long time)
+        {
+            for (int i = _regions.size() - 1; i >= 0; i--)
+            {
+                if (_regions.get(i).getStartTime() <= time)
+                    return _regions.get(i);
+            }
+            return null;
+        }
+
+        private InitialBalanceRegion getOrCreateRegion(int sessionIdx)
+        {
+            long startTime = _calendar.getStartTime(sessionIdx);
+            if (!_regions.isEmpty() && _regions.getLast().getStartTime() >= startTime)
+                return _regions.getLast();
+
+            var region = new InitialBalanceRegion(_prices, _labelPrefix, startTime, _calendar.getEndTime(sessionIdx));
+            addRegion(region);
+            if (_live)
+                addFigure(region);
+            return region;
+        }
+
+        /**
+         * Creates the region for the current (or next) trading session, so its timeframe is shown
+         * before the first minute bar of the session arrives. Reads the instrument's trading hours, so it is only
+         * called on the calculation thread.
+         */
+        public void addUpcomingRegion(long now)
+        {
+            if (_calendar == null)
+                return;
+            int first = _calendar.findIndex(now);
+            for (int i = first; i < _calendar.size() && i < first + 7; i++)
+            {
+                long midTime = (_calendar.getStartTime(i) + _calendar.getEndTime(i)) / 2;
+                if (_instrument.isInsideTradingHours(midTime, false))
+                {
+                    getOrCreateRegion(i);
+                    return;
+                }
+            }
+        }
+
+        public void resetBarCursor()
+        {
+            _barCursor = 0;
+        }
+
+        /**
+         * Removes the regions starting before time, but never the last MIN_KEPT_REGIONS.
+         * @return the number removed
+         */
+        public int evictBefore(long time)
+        {
+            int n = 0;
+            while (n < _regions.size() - MIN_KEPT_REGIONS && _regions.get(n).getStartTime() < time)
+                _regions.get(n++).dropCachedImage();
+            _regions.subList(0, n).clear();
+            _barCursor = Math.max(0, _barCursor - n);
+            return n;
+        }
+
+        /**
+         * Feeds one minute bar (in ticks) into this window. Bars must arrive in time order, the session cursor only ever
+         * moves forwards so a full pass over the minute series is linear in (bars + sessions).
+         * Regions are only created for sessions that actually contain minute bars.
+         */
+        public void onMinuteBar(long startTime, long low, long high)
+        {
+            while (_sessionCursor < _calendar.size() && _calendar.getEndTime(_sessionCursor) <= startTime)
+                _sessionCursor++;
+            if (_sessionCursor >= _calendar.size() || startTime < _calendar.getStartTime(_sessionCursor))
+            {
+                // Outside of an IB period, track how far price extends from the last IB that has started.
+                if (_extensionStats != null)
+                {
+                    var region = findStartedRegion(startTime);
+                    if (region != null)
+                        region.onPostMinuteBar(startTime, low, high);
+                }
+                return;
+            }
+
+            var region = getOrCreateRegion(_sessionCursor);
+            if (!region.isUpdated())
+                startSession(region);
+            region.updateRange(low, high);
+        }
+
+        /**
+         * Confirms any regions that have reached their end time and writes their values onto the chart bars.
+         * Only the latest regions can have changed, so this walks back just as far as the last confirmed region.
+         */
+        public void confirmRegions(long now, DataSeries series)
+        {
+            int first = _regions.size();
+            while (first > 0 && !_regions.get(first - 1).isConfirmed())
+                first--;
+
+            // Confirm in time order, so the range statistics see sessions in sequence.
+            for (int i = first; i < _regions.size(); i++)
+            {
+                var region = _regions.get(i);
+                if (!region.isUpdated() || now < region.getEndTime())
+                    continue;
+
+                confirmRegion(region);
+                for (int idx = Math.max(0, series.findIndex(region.getStartTime())); idx < series.size(); idx++)
+                    updateBarValues(series, idx);
+            }
+        }
+
+        /**
+         * Confirms a region, first recording how its range compares to the previous sessions.
+         * Regions must be confirmed in time order.
+         */
+        public void confirmRegion(InitialBalanceRegion region)
+        {
+            if (_rangeStats != null)
+            {
+                double range = region.getRange();
+                region.setRangeStats(_rangeStats.mean(), _rangeStats.std(), _rangeStats.percentileRank(range), _rangeStats.size());
+                _rangeStats.add(range);
+            }
+            region.setIsConfirmed(true);
+        }
+
+        public InitialBalanceRegion findLatestRegion(long time)
+        {
+            for (int i = _regions.size() - 1; i >= 0; i--)
+            {
+                var region = _regions.get(i);
+                if (region.isTimeInside(time))
+                    return region;
+            }
+            return null;
+        }
+
+        /**
+         * Offers the confirmed regions not yet exported, oldest first, as many as the export has room for.
+         * Regions are confirmed in time order, so the unexported ones are at the end.
+         */
+        public void exportRegions(ColumnarExporter.Stream export)
+        {
+            int i = _regions.size();
+            while (i > 0 && _regions.get(i - 1).getStartTime() > _exportedTime)
+                i--;
+            int room = export.remaining();
+            for (; i < _regions.size() && room > 0; i++, room--)
+            {
+                var region = _regions.get(i);
+                if (!region.isConfirmed())
+                    break;
+                export.offer(_number - 1, region.getStartTime(), region.getHigh(), region.getMid(), region.getLow());
+                _exportedTime = region.getStartTime();
+            }
+        }
+
+        public boolean updateBarValues(DataSeries series, int idx)
+        {
+            long barStartTime = series.getStartTime(idx);
+            while (_barCursor < _regions.size() && _regions.get(_barCursor).getRangeEndTime() <= barStartTime)
+                _barCursor++;
+            if (_barCursor >= _regions.size())
+                return false;
+
+            var region = _regions.get(_barCursor);
+            if (!region.isConfirmed() || barStartTime < region.getStartTime())
+                return false;
+
+            series.setDouble(idx, _highValue, region.getHigh());
+            series.setDouble(idx, _midValue, region.getMid());
+            series.setDouble(idx, _lowValue, region.getLow());
+            if (_rangeStats != null)
+            {
+                series.setDouble(idx, Values.IB_RANGE, region.getRange());
+                series.setDouble(idx, Values.IB_RANGE_MEAN, region.getRangeMean());
+                series.setDouble(idx, Values.IB_RANGE_STD, region.getRangeStd());
+                series.setDouble(idx, Values.IB_RANGE_RANK, region.getRangeRank());
+            }
+            if (_extensionStats != null && barStartTime >= region.getEndTime())
+            {
+                long barEndTime = series.getEndTime(idx);
+                int upLevels = region.levelsHitBy(barEndTime, true);
+                int downLevels = region.levelsHitBy(barEndTime, false);
+                var prior = region.getPriorExtensionStats();
+                series.setDouble(idx, Values.IB_EXT_UP, upLevels / 2.0);
+                series.setDouble(idx, Values.IB_EXT_DOWN, downLevels / 2.0);
+                series.setDouble(idx, Values.IB_EXT_UP_NEXT_RATE, prior.getNextHitRate(upLevels, true));
+                series.setDouble(idx, Values.IB_EXT_DOWN_NEXT_RATE, prior.getNextHitRate(downLevels, false));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Hit counts for the extension half-levels over a set of completed sessions.
+     */
+    static class ExtensionStats
+    {
+        private int _sessions = 0;
+        final private int[] _upHits = new int[EXTENSION_STATS_HALF_LEVELS];
+        final private int[] _downHits = new int[EXTENSION_STATS_HALF_LEVELS];
+        final private long[] _upMinutes = new long[EXTENSION_STATS_HALF_LEVELS];
+        final private long[] _downMinutes = new long[EXTENSION_STATS_HALF_LEVELS];
+
+        public ExtensionStats copy()
+        {
+            var copy = new ExtensionStats();
+            copy._sessions = _sessions;
+            System.arraycopy(_upHits, 0, copy._upHits, 0, _upHits.length);
+            System.arraycopy(_downHits, 0, copy._downHits, 0, _downHits.length);
+            System.arraycopy(_upMinutes, 0, copy._upMinutes, 0, _upMinutes.length);
+            System.arraycopy(_downMinutes, 0, copy._downMinutes, 0, _downMinutes.length);
+            return copy;
+        }
+
+        public void add(InitialBalanceRegion region)
+        {
+            _sessions++;
+            for (int i = 0; i < region.getUpLevelsHit(); i++)
+            {
+                _upHits[i]++;
+                _upMinutes[i] += (region.getUpHitTime(i) - region.getEndTime()) / Util.MILLIS_IN_MINUTE;
+            }
+            for (int i = 0; i < region.getDownLevelsHit(); i++)
+            {
+                _downHits[i]++;
+                _downMinutes[i] += (region.getDownHitTime(i) - region.getEndTime()) / Util.MILLIS_IN_MINUTE;
+            }
+        }
+
+        public int getSessions()
+        {
+            return _sessions;
+        }
+
+        /**
+         * Percentage of sessions that reached the given half-level (0 = ½xIB𝚫, 1 = 1xIB𝚫, ...).
+         */
+        public Double getHitRate(int level, boolean up)
+        {
+            if (_sessions == 0 || level >= EXTENSION_STATS_HALF_LEVELS)
+                return null;
+            return 100.0 * (up ? _upHits : _downHits)[level] / _sessions;
+        }
+
+        /**
+         * Percentage of sessions that went on to reach the given half-level, out of those that reached the one before it.
+         */
+        public Double getNextHitRate(int level, boolean up)
+        {
+            if (level >= EXTENSION_STATS_HALF_LEVELS)
+                return null;
+            var hits = up ? _upHits : _downHits;
+            int reachedPrev = level == 0 ? _sessions : hits[level - 1];
+            if (reachedPrev == 0)
+                return null;
+            return 100.0 * hits[level] / reachedPrev;
+        }
+
+        public Long getAvgMinutesToHit(int level, boolean up)
+        {
+            var hits = up ? _upHits : _downHits;
+            if (hits[level] == 0)
+                return null;
+            return (up ? _upMinutes : _downMinutes)[level] / hits[level];
+        }
+    }
+
+    class ExtensionStatsTable extends Figure
+    {
+        final private static int PADDING = 4;
+        final private InitialBalanceWindow _window;
+
+        public ExtensionStatsTable(InitialBalanceWindow window)
+        {
+            _window = window;
+        }
+
+        @Override
+        public boolean contains(double x, double y, DrawContext ctx)
+        {
+            var bounds = getBounds();
+            return bounds != null && bounds.contains(x, y);
+        }
+
+        @Override
+        public String getPopupMessage(double x, double y, DrawContext ctx)
+        {
+            var stats = _window.getExtensionStats();
+            var msg = new StringBuilder("Average minutes after IB to reach level:");
+            for (int level = 0; level < EXTENSION_STATS_HALF_LEVELS; level++)
+            {
+                var up = stats.getAvgMinutesToHit(level, true);
+                var down = stats.getAvgMinutesToHit(level, false);
+                if (up == null && down == null)
+                    continue;
+                msg.append("\n").append(levelLabel(level)).append(": ")
+                        .append(up != null ? "up " + up + "m" : "up -").append(", ")
+                        .append(down != null ? "down " + down + "m" : "down -");
+            }
+            return msg.toString();
+        }
+
+        @Override
+        public void draw(Graphics2D gc, DrawContext ctx)
+        {
+            var stats = _window.getExtensionStats();
+            var lines = new ArrayList<String>();
+            lines.add(_window.getLabelPrefix() + " Extension Hit Rates (" + stats.getSessions() + " sessions)");
+            for (int level = 0; level < EXTENSION_STATS_HALF_LEVELS; level++)
+            {
+                var up = stats.getHitRate(level, true);
+                var down = stats.getHitRate(level, false);
+                if (up == null || down == null || (level > 1 && up == 0 && down == 0))
+                    break;
+                lines.add(levelLabel(level) + ":  High + " + Math.round(up) + "%   Low - " + Math.round(down) + "%");
+            }
+
+            var defaults = ctx.getDefaults();
+            gc.setFont(defaults.getFont());
+            var fm = gc.getFontMetrics();
+            int w = 0;
+            for (var line : lines)
+                w = Math.max(w, fm.stringWidth(line));
+            int h = lines.size() * fm.getHeight();
+            var bounds = ctx.getBounds();
+            int x = bounds.x + PADDING;
+            int y = bounds.y + PADDING;
+            setBounds(new Rectangle(x, y, w + 2 * PADDING, h + 2 * PADDING));
+
+            gc.setColor(defaults.getBackgroundColor());
+            gc.fillRect(x, y, w + 2 * PADDING, h + 2 * PADDING);
+            gc.setColor(defaults.getTextColor());
+            for (int i = 0; i < lines.size(); i++)
+                gc.drawString(lines.get(i), x + PADDING, y + PADDING + fm.getAscent() + i * fm.getHeight());
+        }
+
+        private String levelLabel(int level)
+        {
+            int whole = (level + 1) / 2;
+            return (level % 2 == 0 ? (whole > 0 ? whole : "") + "½" : String.valueOf(whole)) + "xIB𝚫";
+        }
+    }
+
+    /**
+     * The set of windows (and their regions) shown on the chart. A new snapshot is only touched by the build thread
+     * until it is published, after which it is only changed while holding _updateLock.
+     * It is swapped in as a whole, so the chart keeps drawing the previous one until then.
+     */
+    class RegionSnapshot
+    {
+        final private long _buildId;
+        final private List<InitialBalanceWindow> _windows;
+        final private List<Figure> _extraFigures = new ArrayList<>();
+        private int _minuteIdx;
+
+        public RegionSnapshot(long buildId, List<InitialBalanceWindow> windows)
+        {
+            _buildId = buildId;
+            _windows = windows;
+            _minuteIdx = 0;
+        }
+
+        public long getBuildId()
+        {
+            return _buildId;
+        }
+
+        public void addExtraFigure(Figure figure)
+        {
+            _extraFigures.add(figure);
+        }
+
+        public int getRegionCount()
+        {
+            int count = 0;
+            for (var window : _windows)
+                count += window.getRegions().size();
+            return count;
+        }
+
+        /**
+         * Number of values written on each chart bar.
+         */
+        public int getValuesPerBar()
+        {
+            int count = 0;
+            for (var window : _windows)
+                count += 3 + (window.getRangeStats() != null ? 4 : 0) + (window.getExtensionStats() != null ? 4 : 0);
+            return count;
+        }
+
+        public List<InitialBalanceWindow> getWindows()
+        {
+            return _windows;
+        }
+
+        public int getMinuteIdx()
+        {
+            return _minuteIdx;
+        }
+
+        public void setMinuteIdx(int minuteIdx)
+        {
+            _minuteIdx = minuteIdx;
+        }
+
+        public List<Figure> getFigures()
+        {
+            var figures = new ArrayList<Figure>();
+            for (var window : _windows)
+                figures.addAll(window.getRegions());
+            figures.addAll(_extraFigures);
+            return figures;
+        }
+    }
+
+    /**
+     * The minute bars before a time, in ticks, copied from the minute series on the calculation thread
+     * so that a rebuild never reads the series itself.
+     */
+    static class MinuteBars
+    {
+        final long[] times;
+        final long[] lows;
+        final long[] highs;
+        final int size;
+
+        MinuteBars(DataSeries minuteSeries, TickPrice prices, long now)
+        {
+            int n = 0;
+            while (n < minuteSeries.size() && minuteSeries.getStartTime(n) < now)
+                n++;
+            times = new long[n];
+            lows = new long[n];
+            highs = new long[n];
+            for (int i = 0; i < n; i++)
+            {
+                times[i] = minuteSeries.getStartTime(i);
+                lows[i] = prices.toTicks(minuteSeries.getLow(i));
+                highs[i] = prices.toTicks(minuteSeries.getHigh(i));
+            }
+            size = n;
+        }
+    }
+
     final static String TIMEFRAME = "timeframe";
+    final static String TIMEFRAME_2 = "timeframe2";
+    final static String TIMEFRAME_3 = "timeframe3";
     final static String TIMEFRAME_FILL = "timeframeFill";
     final static String RANGE_FILL = "rangeFill";
     final static String SHOW_DEVELOPING_INITIAL_BALANCE = "showDevelopingInitialBalance";
+    final static String STREAM_MINUTE_BARS = "streamMinuteBars";
+    final static String STATS_SESSIONS = "statsSessions";
+    final static String BACKGROUND_CALCULATION = "backgroundCalculation";
+    final static String CACHE_CONFIRMED_REGIONS = "cacheConfirmedRegions";
+    final static String SHOW_EXTENSION_STATS = "showExtensionStats";
+    final static String MEMORY_BUDGET = "memoryBudget";
+    final static String SHOW_MEMORY_USAGE = "showMemoryUsage";
+    final static String EXPORT = "export";
+    final static String EXPORT_DIRECTORY = "exportDirectory";
     final static String IB_HIGH_LINE = "ibHighLine";
     final static String IB_MID_LINE = "ibMidLine";
     final static String IB_LOW_LINE = "ibLowLine";
@@ -432,15 +1269,59 @@ public class InitialBalance extends Study
     final static String IB_LOW_INDICATOR = "ibLowIndicator";
     final static String MINUTE_BARS = "minuteBars";
     final static String LEFT="L", RIGHT="R", MIDDLE="M";
-    final static int MAX_EXTENSION_LEVELS = 3;
-
-    private final ArrayList<InitialBalanceRegion> _regions = new ArrayList<>();
+    // Only the extension levels on screen are drawn, so this just bounds the setting.
+    final static int MAX_EXTENSION_LEVELS = 100;
+    final static long CALENDAR_LOOKAHEAD = 7 * Util.MILLIS_IN_DAY;
+    // Extension hit rates are tracked for ½xIB𝚫 steps up to 8xIB𝚫.
+    final static int EXTENSION_STATS_HALF_LEVELS = 16;
+    // Space above and below the outermost lines for their labels in a cached region image.
+    final static int CACHE_MARGIN = 40;
+    // Larger regions (e.g. when zoomed right in on price) are drawn directly rather than cached.
+    final static int MAX_CACHE_PIXELS = 1_000_000;
+    // Rough size of a region with its statistics, and the number of recent regions never evicted.
+    final static long REGION_BYTES = 400;
+    final static int MIN_KEPT_REGIONS = 10;
+
+    // Shared by all instances, with a few threads so one chart's rebuild doesn't hold up the others'.
+    final static int BUILD_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    private static final ExecutorService BUILD_EXECUTOR = Executors.newFixedThreadPool(BUILD_THREADS, r -> {
+        var thread = new Thread(r, "InitialBalance-Build");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile RegionSnapshot _snapshot = new RegionSnapshot(0, List.of());
+    private final AtomicLong _buildId = new AtomicLong();
+    private final Object _updateLock = new Object();
+    // IB regions have no markers, so there is nothing to skip.
+    private final MemoryBudget _memory = new MemoryBudget(EnumSet.of(MemoryBudget.Step.EVICT_HISTORY, MemoryBudget.Step.DROP_SCRATCH));
+    private final MemoryDiagnostics _diagnostics = new MemoryDiagnostics("Initial Balance", _memory);
+    private final AtomicLong _cacheBytes = new AtomicLong();
+    // Values on bars before this have been evicted.
+    private int _firstValueBar = 0;
+    private int _memoryBarCount = 0;
+    // Confirmed regions are exported once each, see ColumnarExporter. Only used while holding _updateLock.
+    private ColumnarExporter.Stream _export = null;
 
     enum Values
     {
         IB_HIGH,
         IB_MID,
-        IB_LOW
+        IB_LOW,
+        IB2_HIGH,
+        IB2_MID,
+        IB2_LOW,
+        IB3_HIGH,
+        IB3_MID,
+        IB3_LOW,
+        IB_RANGE,
+        IB_RANGE_MEAN,
+        IB_RANGE_STD,
+        IB_RANGE_RANK,
+        IB_EXT_UP,
+        IB_EXT_DOWN,
+        IB_EXT_UP_NEXT_RATE,
+        IB_EXT_DOWN_NEXT_RATE
     }
 
     @Override
@@ -457,7 +1338,23 @@ public class InitialBalance extends Study
 
         var grpInputs = tabGeneral.addGroup("Inputs");
         grpInputs.addRow(new TimeFrameDescriptor(TIMEFRAME, "Timeframe", (int)((9*Util.MILLIS_IN_HOUR) + (Util.MILLIS_IN_HOUR / 2)), (int)((10*Util.MILLIS_IN_HOUR) + (Util.MILLIS_IN_HOUR / 2)), true, false));
+        grpInputs.addRow(new TimeFrameDescriptor(TIMEFRAME_2, "Timeframe 2", (int)((9*Util.MILLIS_IN_HOUR) + (Util.MILLIS_IN_HOUR / 2)), (int)(10*Util.MILLIS_IN_HOUR), false, true));
+        grpInputs.addRow(new TimeFrameDescriptor(TIMEFRAME_3, "Timeframe 3", (int)(18*Util.MILLIS_IN_HOUR), (int)(19*Util.MILLIS_IN_HOUR), false, true));
         grpInputs.addRow(new BooleanDescriptor(SHOW_DEVELOPING_INITIAL_BALANCE, "Show Developing Initial Balance", true));
+        grpInputs.addRow(new BooleanDescriptor(STREAM_MINUTE_BARS, "Update From 1-Minute Bars", true));
+        grpInputs.addRow(new BooleanDescriptor(BACKGROUND_CALCULATION, "Calculate In Background", true));
+        grpInputs.addRow(new BooleanDescriptor(CACHE_CONFIRMED_REGIONS, "Cache Confirmed Regions", true));
+        grpInputs.addRow(new IntegerDescriptor(STATS_SESSIONS, "IB 𝚫 Statistics Sessions", 20, 2, 250, 1));
+        grpInputs.addRow(new BooleanDescriptor(SHOW_EXTENSION_STATS, "Show Extension Hit Rates", false));
+
+        var grpMemory = tabGeneral.addGroup("Memory");
+        grpMemory.addRow(new IntegerDescriptor(MEMORY_BUDGET, "Memory Budget (MB, 0 = None)", 64, 0, 4096, 1));
+        grpMemory.addRow(new BooleanDescriptor(SHOW_MEMORY_USAGE, "Show Memory Usage", false));
+
+        var grpExport = tabGeneral.addGroup("Export");
+        grpExport.addRow(new BooleanDescriptor(EXPORT, "Export To Files", false));
+        grpExport.addRow(new StringDescriptor(EXPORT_DIRECTORY, "Directory", ColumnarExporter.DEFAULT_DIRECTORY));
+        sd.addDependency(new InputDependency(EXPORT, EXPORT_DIRECTORY));
 
         var grpRegions = tabGeneral.addGroup("Regions");
         grpRegions.addRow(new ColorDescriptor(TIMEFRAME_FILL, "Highlight Timeframe", Util.getAlphaFill(defaults.getPurple()), true, true));
@@ -506,7 +1403,7 @@ public class InitialBalance extends Study
         // Required invisible input to declare other bar sizes.
         sd.addInvisibleSetting(new BarSizeDescriptor(MINUTE_BARS, "MINUTE", BarSize.getBarSize(Enums.BarSizeType.LINEAR, Enums.IntervalType.MINUTE, 1)));
 
-        sd.addQuickSettings(TIMEFRAME, TIMEFRAME_FILL, RANGE_FILL, SHOW_DEVELOPING_INITIAL_BALANCE, NUM_EXTENSION_LEVELS);
+        sd.addQuickSettings(TIMEFRAME, TIMEFRAME_2, TIMEFRAME_3, TIMEFRAME_FILL, RANGE_FILL, SHOW_DEVELOPING_INITIAL_BALANCE, NUM_EXTENSION_LEVELS);
 
         var rd = createRD();
         rd.setLabelSettings(TIMEFRAME);
@@ -515,6 +1412,20 @@ public class InitialBalance extends Study
         rd.exportValue(new ValueDescriptor(Values.IB_HIGH, "IB High", new String[] {TIMEFRAME}));
         rd.exportValue(new ValueDescriptor(Values.IB_MID, "IB Mid", new String[] {TIMEFRAME}));
         rd.exportValue(new ValueDescriptor(Values.IB_LOW, "IB Low", new String[] {TIMEFRAME}));
+        rd.exportValue(new ValueDescriptor(Values.IB2_HIGH, "IB2 High", new String[] {TIMEFRAME_2}));
+        rd.exportValue(new ValueDescriptor(Values.IB2_MID, "IB2 Mid", new String[] {TIMEFRAME_2}));
+        rd.exportValue(new ValueDescriptor(Values.IB2_LOW, "IB2 Low", new String[] {TIMEFRAME_2}));
+        rd.exportValue(new ValueDescriptor(Values.IB3_HIGH, "IB3 High", new String[] {TIMEFRAME_3}));
+        rd.exportValue(new ValueDescriptor(Values.IB3_MID, "IB3 Mid", new String[] {TIMEFRAME_3}));
+        rd.exportValue(new ValueDescriptor(Values.IB3_LOW, "IB3 Low", new String[] {TIMEFRAME_3}));
+        rd.exportValue(new ValueDescriptor(Values.IB_RANGE, "IB 𝚫", new String[] {TIMEFRAME}));
+        rd.exportValue(new ValueDescriptor(Values.IB_RANGE_MEAN, "IB 𝚫 Average", new String[] {TIMEFRAME, STATS_SESSIONS}));
+        rd.exportValue(new ValueDescriptor(Values.IB_RANGE_STD, "IB 𝚫 Std Dev", new String[] {TIMEFRAME, STATS_SESSIONS}));
+        rd.exportValue(new ValueDescriptor(Values.IB_RANGE_RANK, "IB 𝚫 Percentile Rank", new String[] {TIMEFRAME, STATS_SESSIONS}));
+        rd.exportValue(new ValueDescriptor(Values.IB_EXT_UP, "IB High Extension Reached (xIB𝚫)", new String[] {TIMEFRAME}));
+        rd.exportValue(new ValueDescriptor(Values.IB_EXT_DOWN, "IB Low Extension Reached (xIB𝚫)", new String[] {TIMEFRAME}));
+        rd.exportValue(new ValueDescriptor(Values.IB_EXT_UP_NEXT_RATE, "IB Next High Extension Hit Rate %", new String[] {TIMEFRAME}));
+        rd.exportValue(new ValueDescriptor(Values.IB_EXT_DOWN_NEXT_RATE, "IB Next Low Extension Hit Rate %", new String[] {TIMEFRAME}));
 
         rd.declareIndicator(Values.IB_HIGH, IB_HIGH_INDICATOR);
         rd.declareIndicator(Values.IB_MID, IB_MID_INDICATOR);
@@ -524,146 +1435,376 @@ public class InitialBalance extends Study
     @Override
     protected void calculateValues(DataContext ctx)
     {
-        // Clear old regions.
-        clearFigures();
-        _regions.clear();
+        long buildId = _buildId.incrementAndGet();
+        updateExport(ctx);
+        var now = ctx.getCurrentTime();
+        var series = ctx.getDataSeries();
+        var snapshot = createSnapshot(ctx, buildId);
+        // Everything the build reads is copied here, on the calculation thread.
+        var minuteSeries = getMinuteSeries(ctx);
+        var bars = snapshot.getWindows().isEmpty() || minuteSeries == null ? null : new MinuteBars(minuteSeries, TickPrice.of(ctx.getInstrument()), now);
+        if (!getSettings().getBoolean(BACKGROUND_CALCULATION, true))
+        {
+            buildRegions(snapshot, bars, now);
+            publish(snapshot, series, now);
+            return;
+        }
+
+        // Rebuild off the calculation thread, the chart keeps drawing the current snapshot until the new one is
+        // published, as soon as the build completes so that a chart without ticks still gets it.
+        BUILD_EXECUTOR.execute(() -> {
+            // Skip builds that have already been superseded by a later recalculation.
+            if (buildId != _buildId.get())
+                return;
+            try
+            {
+                buildRegions(snapshot, bars, now);
+                if (publish(snapshot, series, now))
+                    notifyRedraw();
+            }
+            catch (RuntimeException e)
+            {
+                error("Initial Balance calculation failed: " + e);
+            }
+        });
+    }
+
+    @Override
+    public void destroy()
+    {
+        synchronized (_updateLock)
+        {
+            if (_export != null)
+                _export.close();
+        }
+        super.destroy();
+    }
+
+    /**
+     * Opens, keeps or closes the export to match the settings, reporting why the previous one stopped if it failed.
+     * Each region is exported once, so a row at the last time written is always a repeat.
+     */
+    private void updateExport(DataContext ctx)
+    {
+        synchronized (_updateLock)
+        {
+            if (_export != null && _export.getError() != null)
+                error("Initial Balance export failed: " + _export.getError());
+            var settings = getSettings();
+            var dir = settings.getBoolean(EXPORT, false) ? settings.getString(EXPORT_DIRECTORY, ColumnarExporter.DEFAULT_DIRECTORY) : null;
+            _export = ColumnarExporter.reopen(_export, dir, ctx.getInstrument().getSymbol(), "InitialBalance", "high", "mid", "low");
+            if (_export != null)
+                _export.setReplay(true);
+        }
+    }
+
+    /**
+     * Must hold _updateLock.
+     */
+    private void exportRegions(RegionSnapshot snapshot)
+    {
+        if (_export == null)
+            return;
+        for (var window : snapshot.getWindows())
+            window.exportRegions(_export);
+    }
+
+    /**
+     * Creates the windows for the current settings, without any regions yet. Called on the calculation thread.
+     */
+    private RegionSnapshot createSnapshot(DataContext ctx, long buildId)
+    {
+        var windows = new ArrayList<InitialBalanceWindow>();
+        var snapshot = new RegionSnapshot(buildId, windows);
 
         // Nothing to do if we are not on an intraday chart.
         var series = ctx.getDataSeries();
         if (!series.getBarSize().isIntraday())
-            return;
+            return snapshot;
 
         // Get settings.
         var settings = getSettings();
         var tf = settings.getTimeFrame(TIMEFRAME);
-        var highlightTimeframe = settings.getColorInfo(TIMEFRAME_FILL);
+        var tf2 = settings.getTimeFrame(TIMEFRAME_2);
+        var tf3 = settings.getTimeFrame(TIMEFRAME_3);
 
         var instr = ctx.getInstrument();
-        var now = ctx.getCurrentTime();
-        // Use 1-minute bars to build IB regions.
-        var minuteSeries = ctx.getDataSeries(BarSize.getBarSize(Enums.BarSizeType.LINEAR, Enums.IntervalType.MINUTE, 1));
-        long regionsFirstDay = Util.getMidnight(minuteSeries.getStartTime(0), ctx.getTimeZone());
-        long regionsLastDay = Util.getMidnight(now + (15 * Util.MILLIS_IN_DAY), ctx.getTimeZone());
+        var tz = ctx.getTimeZone();
 
-        long day = regionsFirstDay;
-        InitialBalanceRegion prevRegion = null;
-        while (day <  regionsLastDay)
+        // The primary timeframe is always shown, the others only when enabled.
+        var primaryWindow = new InitialBalanceWindow(1, instr, tz, tf, "IB", Values.IB_HIGH, Values.IB_MID, Values.IB_LOW);
+        primaryWindow.setRangeStats(new RollingStats(settings.getInteger(STATS_SESSIONS, 20)));
+        if (settings.getBoolean(SHOW_EXTENSION_STATS, false))
         {
-            long day2 = day;
-            if (tf.getStartTime() > tf.getEndTime())
-                day2 = Util.getNextDayMidnight(day, ctx.getTimeZone());
-            long nextDay = Util.getNextDayMidnight(day, ctx.getTimeZone());
+            primaryWindow.setExtensionStats(new ExtensionStats());
+            snapshot.addExtraFigure(new ExtensionStatsTable(primaryWindow));
+        }
+        windows.add(primaryWindow);
+        if (tf2 != null && tf2.isEnabled())
+            windows.add(new InitialBalanceWindow(2, instr, tz, tf2, "IB2", Values.IB2_HIGH, Values.IB2_MID, Values.IB2_LOW));
+        if (tf3 != null && tf3.isEnabled())
+            windows.add(new InitialBalanceWindow(3, instr, tz, tf3, "IB3", Values.IB3_HIGH, Values.IB3_MID, Values.IB3_LOW));
+        if (settings.getBoolean(SHOW_MEMORY_USAGE, false))
+            snapshot.addExtraFigure(_diagnostics);
+        return snapshot;
+    }
 
-            long regionStartTime = day + tf.getStartTime();
-            long regionEndTime = day2 + tf.getEndTime();
+    /**
+     * Builds every window's regions and ranges from the minute bars (in ticks) in a single pass.
+     * Only reads the copied bars, so it can run on the build thread.
+     * @param bars null if there is no minute series
+     */
+    private void buildRegions(RegionSnapshot snapshot, MinuteBars bars, long now)
+    {
+        if (bars == null || bars.size == 0)
+            return;
+        var windows = snapshot.getWindows();
+        for (var window : windows)
+            window.ensureCalendar(bars.times[0], now + CALENDAR_LOOKAHEAD);
 
-            var region = new InitialBalanceRegion(ctx.getInstrument(), regionStartTime, regionEndTime);
-            _regions.add(region);
-            addFigure(region);
+        for (int i = 0; i < bars.size; i++)
+        {
+            for (var window : windows)
+                window.onMinuteBar(bars.times[i], bars.lows[i], bars.highs[i]);
+        }
+        snapshot.setMinuteIdx(bars.size - 1);
 
-            if (now > regionStartTime)
+        for (var window : windows)
+        {
+            for (var region : window.getRegions())
             {
-                int si = minuteSeries.findIndex(regionStartTime);
-                int ei = minuteSeries.findIndex(regionEndTime - 100);
-
-                // Make sure this is a valid range
-                if (minuteSeries.getStartTime(si) > regionEndTime || minuteSeries.getStartTime(ei) < regionStartTime) {
-                    day = nextDay;
-                    //debug("calculateValues: Skipping region " + Util.formatYYYYMMMDDHHSSMMM(regionStartTime, ctx.getTimeZone()));
-                    continue;
-                }
-
-                Double h = minuteSeries.highest(ei, ei-si+1, Enums.BarInput.HIGH);
-                Double l = minuteSeries.lowest(ei, ei-si+1, Enums.BarInput.LOW);
-
-                if (h != null && l != null)
-                {
-                    region.setHigh(h);
-                    region.setLow(l);
-                }
-                if (now >= regionEndTime)
-                {
-                    region.setIsConfirmed(true);
-                    // Now that IB is confirmed, update bar values.
-                    updateBarValues(series, region);
-                }
+                if (region.isUpdated() && now >= region.getEndTime())
+                    window.confirmRegion(region);
             }
+        }
 
-            if (prevRegion != null)
+        //dumpRegions(snapshot, "buildRegions");
+    }
+
+    /**
+     * Swaps in a newly built snapshot, replacing the chart's figures in one step and writing the bar values.
+     * Runs on the calculation thread or on the build thread once the build completes, under _updateLock either way.
+     * @return false if a later recalculation has superseded the snapshot, in which case nothing changes
+     */
+    private boolean publish(RegionSnapshot snapshot, DataSeries series, long now)
+    {
+        synchronized (_updateLock)
+        {
+            if (snapshot.getBuildId() != _buildId.get())
+                return false;
+            for (var window : snapshot.getWindows())
             {
-                prevRegion.setRangeEndTime(region.getStartTime());
-                updateBarValues(series, prevRegion);
+                window.addUpcomingRegion(now);
+                window.setLive(true);
             }
-            day = nextDay;
-            prevRegion = region;
+            _snapshot = snapshot;
+            setFigures(snapshot.getFigures());
+
+            // Now that IBs are confirmed, update bar values.
+            updateBarValues(snapshot, series);
+
+            _memory.reset(getSettings().getInteger(MEMORY_BUDGET, 64));
+            _cacheBytes.set(0);
+            _firstValueBar = 0;
+            if (series != null)
+                enforceMemoryBudget(snapshot, series);
+            exportRegions(snapshot);
         }
+        return true;
+    }
 
-        //dumpRegions("calculateValues");
+    /**
+     * Estimates what this instance holds: its regions, the values written on chart bars and the cached region images.
+     */
+    private void accountMemory(RegionSnapshot snapshot, DataSeries series)
+    {
+        int regions = snapshot.getRegionCount();
+        _memory.setFigures(regions, regions * REGION_BYTES);
+        _memory.setValues((long)Math.max(0, series.size() - _firstValueBar) * snapshot.getValuesPerBar());
+        _memory.setCacheBytes(_cacheBytes.get());
     }
 
-    @Override
-    public void onBarUpdate(DataContext ctx)
+    /**
+     * Degrades until the estimate fits the budget: the oldest sessions are evicted first (their regions and the
+     * values on their bars), then confirmed regions are no longer cached as images.
+     * Runs when a snapshot is published and once per new bar. Must hold _updateLock.
+     */
+    private void enforceMemoryBudget(RegionSnapshot snapshot, DataSeries series)
     {
-        // Find the currently developing IB region.
-        var now = ctx.getCurrentTime();
-        var region = findLatestInitialBalanceRegion(now);
-        if (region != null)
+        _memoryBarCount = series.size();
+        accountMemory(snapshot, series);
+        if (!_memory.isOverBudget())
+            return;
+        if (!_memory.isAtLeast(MemoryBudget.Step.EVICT_HISTORY))
+            _memory.degrade();
+        evictHistory(snapshot, series);
+        if (_memory.isOverBudget() && _memory.degrade())
         {
-            //debug("Found developing region for " + Util.formatYYYYMMMDDHHSSMMM(now));
-            //dumpRegion(region, "onBarUpdate[BEFORE]");
-            var series = ctx.getDataSeries();
-            if (region.updateRange(series.getLow(), series.getHigh()))
+            for (var window : snapshot.getWindows())
             {
-                //dumpRegion(region, "onBarUpdate[AFTER]");
+                for (var region : window.getRegions())
+                    region.dropCachedImage();
             }
+            accountMemory(snapshot, series);
         }
     }
 
-    private InitialBalanceRegion findLatestInitialBalanceRegion(long time)
+    /**
+     * Evicts whole sessions of the primary timeframe, oldest first, until enough has been freed.
+     * Each session frees its regions and the values on its bars.
+     */
+    private void evictHistory(RegionSnapshot snapshot, DataSeries series)
     {
-        for (int i = _regions.size() - 1; i >= 0; i--)
+        var windows = snapshot.getWindows();
+        if (windows.isEmpty())
+            return;
+        var regions = windows.get(0).getRegions();
+        long excess = _memory.getUsedBytes() - _memory.getBudget();
+        long valueBytes = snapshot.getValuesPerBar() * MemoryBudget.VALUE_BYTES;
+        int firstBar = _firstValueBar;
+        int kept = 0;
+        while (excess > 0 && kept < regions.size() - MIN_KEPT_REGIONS)
         {
-            var region = _regions.get(i);
-            if (region.isTimeInside(time))
-                return region;
+            int nextBar = Math.max(firstBar, series.findIndex(regions.get(kept + 1).getStartTime()));
+            excess -= windows.size() * REGION_BYTES + (nextBar - firstBar) * valueBytes;
+            firstBar = nextBar;
+            kept++;
         }
-        return null;
+        if (kept == 0)
+            return;
+
+        long time = regions.get(kept).getStartTime();
+        int evicted = 0;
+        for (var window : windows)
+            evicted += window.evictBefore(time);
+        for (int i = _firstValueBar; i < firstBar; i++)
+        {
+            for (var value : Values.values())
+                series.setDouble(i, value, null);
+        }
+        _firstValueBar = firstBar;
+        _memory.addEvicted(evicted);
+        setFigures(snapshot.getFigures());
+        accountMemory(snapshot, series);
     }
 
-    private void updateBarValues(DataSeries series, InitialBalanceRegion region)
+    @Override
+    public void onBarUpdate(DataContext ctx)
     {
-        if (series == null || region == null)
+        var snapshot = _snapshot;
+        var windows = snapshot.getWindows();
+        if (windows.isEmpty())
             return;
-        if (!region.isUpdated())
-            return;
-        if (!region.isConfirmed())
+
+        var now = ctx.getCurrentTime();
+        var series = ctx.getDataSeries();
+        var minuteSeries = getMinuteSeries(ctx);
+        if (getSettings().getBoolean(STREAM_MINUTE_BARS, true) && minuteSeries != null && minuteSeries.size() > 0)
+        {
+            synchronized (_updateLock)
+            {
+                // A newer snapshot may have been published while we were waiting, it will be updated next time.
+                if (snapshot != _snapshot)
+                    return;
+
+                // Feed the minute bars received since the last update (normally just the developing one) into
+                // each window, so developing IBs match the confirmed ones regardless of the chart's bar size.
+                for (var window : windows)
+                    window.ensureCalendar(now, now + CALENDAR_LOOKAHEAD);
+                var prices = TickPrice.of(ctx.getInstrument());
+                for (int i = Math.min(snapshot.getMinuteIdx(), minuteSeries.size() - 1); i < minuteSeries.size(); i++)
+                {
+                    long startTime = minuteSeries.getStartTime(i);
+                    long low = prices.toTicks(minuteSeries.getLow(i));
+                    long high = prices.toTicks(minuteSeries.getHigh(i));
+                    for (var window : windows)
+                        window.onMinuteBar(startTime, low, high);
+                    snapshot.setMinuteIdx(i);
+                }
+
+                int lastIdx = series.size() - 1;
+                for (var window : windows)
+                {
+                    window.addUpcomingRegion(now);
+                    window.confirmRegions(now, series);
+                    if (lastIdx >= 0)
+                        window.updateBarValues(series, lastIdx);
+                }
+                if (series.size() != _memoryBarCount)
+                    enforceMemoryBudget(snapshot, series);
+                exportRegions(snapshot);
+            }
             return;
+        }
 
-        for (int i = series.size() - 1; i >= 0; i--)
+        synchronized (_updateLock)
         {
-            var barStartTime = series.getStartTime(i);
-            var barEndTime = series.getEndTime(i);
+            if (snapshot != _snapshot)
+                return;
 
-            if (barStartTime >= region.getStartTime() && barStartTime < region.getRangeEndTime())
+            // Without minute bars the developing IB is updated from the chart bars, and new sessions still get
+            // their regions (confirmed and written onto the bars) as they come round.
+            int lastIdx = series.size() - 1;
+            for (var window : windows)
             {
-                if (series.isComplete(i))
-                    break;
+                window.ensureCalendar(now, now + CALENDAR_LOOKAHEAD);
+                window.addUpcomingRegion(now);
+                var region = window.findLatestRegion(now);
+                if (region != null)
+                {
+                    //debug("Found developing region for " + Util.formatYYYYMMMDDHHSSMMM(now));
+                    //dumpRegion(region, "onBarUpdate[BEFORE]");
+                    if (region.updateRange(series.getLow(), series.getHigh()))
+                    {
+                        //dumpRegion(region, "onBarUpdate[AFTER]");
+                    }
+                }
+                window.confirmRegions(now, series);
+                if (lastIdx >= 0)
+                    window.updateBarValues(series, lastIdx);
+            }
+            if (series.size() != _memoryBarCount)
+                enforceMemoryBudget(snapshot, series);
+            exportRegions(snapshot);
+        }
+    }
 
-                series.setDouble(i, Values.IB_HIGH, region.getHigh());
-                series.setDouble(i, Values.IB_MID, region.getMid());
-                series.setDouble(i, Values.IB_LOW, region.getLow());
+    private DataSeries getMinuteSeries(DataContext ctx)
+    {
+        return ctx.getDataSeries(BarSize.getBarSize(Enums.BarSizeType.LINEAR, Enums.IntervalType.MINUTE, 1));
+    }
+
+    private void updateBarValues(RegionSnapshot snapshot, DataSeries series)
+    {
+        if (series == null)
+            return;
+
+        var windows = snapshot.getWindows();
+        for (var window : windows)
+            window.resetBarCursor();
+
+        // Single forward pass, each window advances its own region cursor.
+        for (int i = 0; i < series.size(); i++)
+        {
+            if (series.isComplete(i))
+                continue;
+
+            boolean updated = false;
+            for (var window : windows)
+                updated |= window.updateBarValues(series, i);
+            if (updated)
                 series.setComplete(i);
-            }
-            else if (barEndTime <= region.getStartTime())
-                break;
         }
     }
 
-    private void dumpRegions(String prefix)
+    private void dumpRegions(RegionSnapshot snapshot, String prefix)
     {
-        for (var region : _regions)
+        for (var window : snapshot.getWindows())
         {
-            dumpRegion(region, prefix);
+            for (var region : window.getRegions())
+            {
+                dumpRegion(region, prefix);
+            }
         }
     }
 
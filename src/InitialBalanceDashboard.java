@@ -0,0 +1,312 @@
+import com.motivewave.platform.sdk.common.*;
+import com.motivewave.platform.sdk.common.desc.*;
+import com.motivewave.platform.sdk.draw.Figure;
+import com.motivewave.platform.sdk.study.Study;
+import com.motivewave.platform.sdk.study.StudyHeader;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@StudyHeader(
+        namespace="gambcl.motivewave",
+        id="INITIAL_BALANCE_DASHBOARD",
+        name="Initial Balance Dashboard",
+        desc="Compares the current Initial Balance of a watchlist of instruments.",
+        menu="Custom",
+        overlay=false,
+        studyOverlay=false,
+        multipleInstrument=true,
+        requiresBarUpdates=true)
+public class InitialBalanceDashboard extends Study
+{
+    class DashboardTable extends Figure
+    {
+        final private static int PADDING = 4;
+        final private static int COLUMN_GAP = 12;
+        final private static String[] HEADINGS = {"Symbol", "IB 𝚫", "IB 𝚫 %", "vs Prev", "Position", "Extension"};
+
+        @Override
+        public boolean contains(double x, double y, DrawContext ctx)
+        {
+            var bounds = getBounds();
+            return bounds != null && bounds.contains(x, y);
+        }
+
+        @Override
+        public String getPopupMessage(double x, double y, DrawContext ctx)
+        {
+            var results = _results;
+            var msg = new StringBuilder("Initial Balance Dashboard (" + results.size() + " symbols)");
+            for (var r : results)
+                msg.append("\n").append(String.join("  ", row(r)));
+            return msg.toString();
+        }
+
+        @Override
+        public void draw(Graphics2D gc, DrawContext ctx)
+        {
+            var results = _results;
+            int maxRows = getSettings().getInteger(MAX_ROWS, 20);
+            var rows = new ArrayList<String[]>();
+            rows.add(HEADINGS);
+            for (int i = 0; i < results.size() && i < maxRows; i++)
+                rows.add(row(results.get(i)));
+            if (results.isEmpty())
+                rows.add(new String[] {"No symbols with an IB yet"});
+
+            var defaults = ctx.getDefaults();
+            gc.setFont(defaults.getFont());
+            var fm = gc.getFontMetrics();
+            var widths = new int[HEADINGS.length];
+            for (var row : rows)
+            {
+                for (int c = 0; c < row.length && row.length > 1; c++)
+                    widths[c] = Math.max(widths[c], fm.stringWidth(row[c]));
+            }
+            int w = (HEADINGS.length - 1) * COLUMN_GAP;
+            for (int width : widths)
+                w += width;
+            if (results.isEmpty())
+                w = Math.max(w, fm.stringWidth(rows.getLast()[0]));
+            int h = rows.size() * fm.getHeight();
+            var bounds = ctx.getBounds();
+            int x = bounds.x + PADDING;
+            int y = bounds.y + PADDING;
+            setBounds(new Rectangle(x, y, w + 2 * PADDING, h + 2 * PADDING));
+
+            gc.setColor(defaults.getBackgroundColor());
+            gc.fillRect(x, y, w + 2 * PADDING, h + 2 * PADDING);
+            for (int i = 0; i < rows.size(); i++)
+            {
+                Color color = defaults.getTextColor();
+                if (i > 0 && i <= results.size())
+                {
+                    var r = results.get(i - 1);
+                    if (r.position == InitialBalanceScan.ABOVE)
+                        color = defaults.getGreen();
+                    else if (r.position == InitialBalanceScan.BELOW)
+                        color = defaults.getRed();
+                }
+                gc.setColor(color);
+                // Numbers are right aligned, the symbol and position left aligned.
+                var row = rows.get(i);
+                int colX = x + PADDING;
+                int rowY = y + PADDING + fm.getAscent() + i * fm.getHeight();
+                for (int c = 0; c < row.length; c++)
+                {
+                    boolean right = c > 0 && c != 4;
+                    gc.drawString(row[c], right ? colX + widths[c] - fm.stringWidth(row[c]) : colX, rowY);
+                    colX += widths[c] + COLUMN_GAP;
+                }
+            }
+        }
+
+        private String[] row(InitialBalanceScan.Result r)
+        {
+            String position;
+            if (r.position == InitialBalanceScan.ABOVE)
+                position = String.format("Above IBH +%.2fxIB𝚫", r.offset - 0.5);
+            else if (r.position == InitialBalanceScan.BELOW)
+                position = String.format("Below IBL -%.2fxIB𝚫", -r.offset - 0.5);
+            else
+                position = "Inside " + Math.round(100 * (r.offset + 0.5)) + "%";
+
+            String extension;
+            if (r.developing)
+                extension = "Developing";
+            else if (r.extUp == 0 && r.extDown == 0)
+                extension = "-";
+            else
+                extension = (r.extUp > 0 ? "High + " + levelLabel(r.extUp) : "") + (r.extUp > 0 && r.extDown > 0 ? ", " : "")
+                        + (r.extDown > 0 ? "Low - " + levelLabel(r.extDown) : "");
+
+            double change = r.getRangeChange();
+            return new String[] {
+                    r.symbol,
+                    formatRange(r),
+                    String.format("%.2f%%", r.rangePercent),
+                    Double.isNaN(change) ? "-" : String.format("%+.0f%%", change),
+                    position,
+                    extension};
+        }
+
+        private String formatRange(InitialBalanceScan.Result r)
+        {
+            var instrument = _symbols.get(r.symbol);
+            return instrument != null ? instrument.format(r.range) : String.valueOf(r.range);
+        }
+
+        private String levelLabel(double levels)
+        {
+            long whole = (long)levels;
+            return (levels > whole ? (whole > 0 ? whole : "") + "½" : String.valueOf(whole)) + "xIB𝚫";
+        }
+    }
+
+    final static String TIMEFRAME = "timeframe";
+    final static String INCLUDE_CHART_SYMBOL = "includeChartSymbol";
+    final static String SORT_BY = "sortBy";
+    final static String SORT_DESCENDING = "sortDescending";
+    final static String MAX_ROWS = "maxRows";
+    final static String SYMBOL_PREFIX = "symbol";
+    final static String MINUTE_BARS = "minuteBars";
+    final static int MAX_SYMBOLS = 30;
+    // Far enough back to find the previous session over weekends and holidays.
+    final static long LOOKBACK = 7 * Util.MILLIS_IN_DAY;
+    final static long CALENDAR_LOOKAHEAD = 7 * Util.MILLIS_IN_DAY;
+
+    private final Object _updateLock = new Object();
+    private final DashboardTable _table = new DashboardTable();
+    private volatile List<InitialBalanceScan.Result> _results = List.of();
+    // Instruments by symbol, so the table can format prices.
+    private volatile Map<String, Instrument> _symbols = Map.of();
+    // The following are only used while holding _updateLock.
+    private List<Instrument> _instruments = List.of();
+    private InitialBalanceScan.Tracker[] _trackers = new InitialBalanceScan.Tracker[0];
+    private int _minuteIdx;
+
+    @Override
+    public void initialize(Defaults defaults)
+    {
+        var sd = createSD();
+        var tabGeneral = sd.addTab("General");
+
+        var grpInputs = tabGeneral.addGroup("Inputs");
+        grpInputs.addRow(new TimeFrameDescriptor(TIMEFRAME, "Timeframe", (int)((9*Util.MILLIS_IN_HOUR) + (Util.MILLIS_IN_HOUR / 2)), (int)((10*Util.MILLIS_IN_HOUR) + (Util.MILLIS_IN_HOUR / 2)), true, false));
+        grpInputs.addRow(new BooleanDescriptor(INCLUDE_CHART_SYMBOL, "Include Chart Symbol", true));
+
+        List<NVP> sortColumns = new ArrayList<>();
+        sortColumns.add(new NVP("IB 𝚫 %", InitialBalanceScan.SORT_RANGE));
+        sortColumns.add(new NVP("IB 𝚫 vs Previous Session", InitialBalanceScan.SORT_RANGE_CHANGE));
+        sortColumns.add(new NVP("Position", InitialBalanceScan.SORT_POSITION));
+        sortColumns.add(new NVP("Extension Reached", InitialBalanceScan.SORT_EXTENSION));
+        sortColumns.add(new NVP("Symbol", InitialBalanceScan.SORT_SYMBOL));
+        var grpTable = tabGeneral.addGroup("Table");
+        grpTable.addRow(new DiscreteDescriptor(SORT_BY, "Sort By", InitialBalanceScan.SORT_RANGE, sortColumns));
+        grpTable.addRow(new BooleanDescriptor(SORT_DESCENDING, "Descending", true));
+        grpTable.addRow(new IntegerDescriptor(MAX_ROWS, "Rows Shown", 20, 1, MAX_SYMBOLS + 1, 1));
+
+        var tabSymbols = sd.addTab("Symbols");
+        var grpSymbols = tabSymbols.addGroup("Watchlist");
+        for (int i = 1; i <= MAX_SYMBOLS; i++)
+            grpSymbols.addRow(new InstrumentDescriptor(SYMBOL_PREFIX + i, "Symbol " + i));
+
+        // Ensure that 1-minute bars are loaded.
+        sd.addInvisibleSetting(new BarSizeDescriptor(MINUTE_BARS, "MINUTE", BarSize.getBarSize(Enums.BarSizeType.LINEAR, Enums.IntervalType.MINUTE, 1)));
+        sd.addQuickSettings(TIMEFRAME, SORT_BY, SORT_DESCENDING);
+
+        var rd = createRD();
+        rd.setLabelPrefix("IB Dashboard");
+    }
+
+    @Override
+    protected void calculateValues(DataContext ctx)
+    {
+        synchronized (_updateLock)
+        {
+            _instruments = getWatchlist(ctx);
+            _trackers = new InitialBalanceScan.Tracker[_instruments.size()];
+            var symbols = new HashMap<String, Instrument>();
+            for (int c = 0; c < _trackers.length; c++)
+            {
+                var instrument = _instruments.get(c);
+                _trackers[c] = new InitialBalanceScan.Tracker(instrument.getSymbol(), TickPrice.of(instrument));
+                symbols.put(instrument.getSymbol(), instrument);
+            }
+            _symbols = symbols;
+
+            // Only the current and previous sessions are needed, so start a lookback before now.
+            var minuteSeries = getMinuteSeries(ctx);
+            _minuteIdx = 0;
+            if (minuteSeries != null && minuteSeries.size() > 0)
+                _minuteIdx = Math.max(0, minuteSeries.findIndex(ctx.getCurrentTime() - LOOKBACK));
+            update(ctx, minuteSeries, true);
+        }
+        setFigures(List.of(_table));
+    }
+
+    @Override
+    public void onBarUpdate(DataContext ctx)
+    {
+        synchronized (_updateLock)
+        {
+            update(ctx, getMinuteSeries(ctx), false);
+        }
+    }
+
+    /**
+     * Feeds the minute bars received since the last update (normally just the developing one) to every instrument.
+     * The bars are copied into tick columns here, then the instruments are fed, in parallel for the initial history
+     * and serially for live updates, where the pool's overhead would outweigh the work of a bar or two.
+     * Must hold _updateLock.
+     */
+    private void update(DataContext ctx, DataSeries minuteSeries, boolean history)
+    {
+        var now = ctx.getCurrentTime();
+        if (minuteSeries != null && minuteSeries.size() > 0 && _trackers.length > 0)
+        {
+            var tf = getSettings().getTimeFrame(TIMEFRAME);
+            var calendar = SessionCalendar.get(ctx.getTimeZone(), tf.getStartTime(), tf.getEndTime(),
+                    minuteSeries.getStartTime(Math.min(_minuteIdx, minuteSeries.size() - 1)), now + CALENDAR_LOOKAHEAD);
+            for (var tracker : _trackers)
+                tracker.setCalendar(calendar);
+
+            int first = Math.min(_minuteIdx, minuteSeries.size() - 1);
+            int n = minuteSeries.size() - first;
+            var times = new long[n];
+            for (int i = 0; i < n; i++)
+                times[i] = minuteSeries.getStartTime(first + i);
+            var lows = new long[_trackers.length][n];
+            var highs = new long[_trackers.length][n];
+            var closes = new long[_trackers.length][n];
+            for (int c = 0; c < _trackers.length; c++)
+            {
+                var instrument = _instruments.get(c);
+                var prices = TickPrice.of(instrument);
+                for (int i = 0; i < n; i++)
+                {
+                    float low = minuteSeries.getLow(first + i, instrument);
+                    float high = minuteSeries.getHigh(first + i, instrument);
+                    if (!(low > 0 && high > 0))
+                    {
+                        lows[c][i] = TickPrice.NONE;
+                        continue;
+                    }
+                    lows[c][i] = prices.toTicks(low);
+                    highs[c][i] = prices.toTicks(high);
+                    closes[c][i] = prices.toTicks(minuteSeries.getClose(first + i, instrument));
+                }
+            }
+            InitialBalanceScan.feed(_trackers, times, lows, highs, closes, n, history);
+            _minuteIdx = minuteSeries.size() - 1;
+        }
+
+        var settings = getSettings();
+        var order = InitialBalanceScan.comparator(settings.getString(SORT_BY, InitialBalanceScan.SORT_RANGE), settings.getBoolean(SORT_DESCENDING, true));
+        _results = InitialBalanceScan.results(_trackers, now, order);
+    }
+
+    private DataSeries getMinuteSeries(DataContext ctx)
+    {
+        return ctx.getDataSeries(BarSize.getBarSize(Enums.BarSizeType.LINEAR, Enums.IntervalType.MINUTE, 1));
+    }
+
+    private List<Instrument> getWatchlist(DataContext ctx)
+    {
+        var settings = getSettings();
+        var watchlist = new LinkedHashMap<String, Instrument>();
+        if (settings.getBoolean(INCLUDE_CHART_SYMBOL, true) && ctx.getInstrument() != null)
+            watchlist.put(ctx.getInstrument().getSymbol(), ctx.getInstrument());
+        for (int i = 1; i <= MAX_SYMBOLS; i++)
+        {
+            var instrument = settings.getInstrument(SYMBOL_PREFIX + i);
+            if (instrument != null)
+                watchlist.putIfAbsent(instrument.getSymbol(), instrument);
+        }
+        return new ArrayList<>(watchlist.values());
+    }
+}
@@ -0,0 +1,267 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Tracks the Initial Balance of the current and previous sessions for many instruments, for the dashboard.
+ * Each instrument only keeps those two sessions and walks the session calendar the way InitialBalanceWindow does,
+ * so every minute bar is O(1). Large blocks of bars, such as the initial history, are fed to the instruments in parallel
+ * on a fixed-size pool.
+ */
+public class InitialBalanceScan
+{
+    public final static int ABOVE = 1;
+    public final static int INSIDE = 0;
+    public final static int BELOW = -1;
+
+    final static int PARALLELISM = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    private static final ForkJoinPool POOL = new ForkJoinPool(PARALLELISM, pool -> {
+        var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("InitialBalanceScan-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    }, null, false);
+
+    /**
+     * One session's IB in ticks, along with the furthest price has traded beyond it since the IB ended.
+     */
+    static class Session
+    {
+        final long startTime;
+        final long endTime;
+        long high = TickPrice.NONE;
+        long low = TickPrice.NONE;
+        long postHigh = TickPrice.NONE;
+        long postLow = TickPrice.NONE;
+
+        Session(long startTime, long endTime)
+        {
+            this.startTime = startTime;
+            this.endTime = endTime;
+        }
+    }
+
+    /**
+     * The IB of the current and previous sessions of one instrument, fed its minute bars in time order.
+     */
+    public static class Tracker
+    {
+        final private String _symbol;
+        final private TickPrice _prices;
+        private SessionCalendar _calendar;
+        private int _sessionCursor;
+        private Session _current;
+        private Session _previous;
+        private long _lastTime = Long.MIN_VALUE;
+        private long _lastClose = TickPrice.NONE;
+
+        public Tracker(String symbol, TickPrice prices)
+        {
+            _symbol = symbol;
+            _prices = prices;
+        }
+
+        public String getSymbol()
+        {
+            return _symbol;
+        }
+
+        /**
+         * Calendars only ever grow, so the session cursor is just found again from the last bar seen.
+         */
+        public void setCalendar(SessionCalendar calendar)
+        {
+            if (calendar == _calendar)
+                return;
+            _calendar = calendar;
+            _sessionCursor = calendar.findIndex(_lastTime);
+        }
+
+        /**
+         * Feeds one minute bar (in ticks). The last bar may be fed again as it develops, older bars are ignored.
+         */
+        public void onMinuteBar(long startTime, long low, long high, long close)
+        {
+            if (startTime < _lastTime)
+                return;
+            _lastTime = startTime;
+            _lastClose = close;
+
+            while (_sessionCursor < _calendar.size() && _calendar.getEndTime(_sessionCursor) <= startTime)
+                _sessionCursor++;
+            if (_sessionCursor < _calendar.size() && startTime >= _calendar.getStartTime(_sessionCursor))
+            {
+                // Only sessions that actually contain minute bars become the current session.
+                long sessionStart = _calendar.getStartTime(_sessionCursor);
+                if (_current == null || _current.startTime != sessionStart)
+                {
+                    _previous = _current;
+                    _current = new Session(sessionStart, _calendar.getEndTime(_sessionCursor));
+                }
+                _current.high = _current.high == TickPrice.NONE ? high : Math.max(_current.high, high);
+                _current.low = _current.low == TickPrice.NONE ? low : Math.min(_current.low, low);
+                return;
+            }
+
+            // Outside of an IB period, track how far price extends from the last IB.
+            if (_current != null)
+            {
+                _current.postHigh = _current.postHigh == TickPrice.NONE ? high : Math.max(_current.postHigh, high);
+                _current.postLow = _current.postLow == TickPrice.NONE ? low : Math.min(_current.postLow, low);
+            }
+        }
+
+        /**
+         * @return the current session's IB as seen at time now, or null if no session has had a bar yet
+         */
+        public Result getResult(long now)
+        {
+            var session = _current;
+            if (session == null)
+                return null;
+
+            long range = session.high - session.low;
+            boolean developing = now < session.endTime;
+            int position = _lastClose > session.high ? ABOVE : _lastClose < session.low ? BELOW : INSIDE;
+            // Extension levels are counted in ½xIB𝚫 steps, as on the chart.
+            double extUp = 0;
+            double extDown = 0;
+            if (range > 0 && session.postHigh != TickPrice.NONE)
+            {
+                extUp = Math.max(0, Math.floorDiv(2 * (session.postHigh - session.high), range)) / 2.0;
+                extDown = Math.max(0, Math.floorDiv(2 * (session.low - session.postLow), range)) / 2.0;
+            }
+            var previous = _previous;
+            double previousRange = previous != null ? _prices.toPrice(previous.high - previous.low) : Double.NaN;
+
+            return new Result(_symbol, session.startTime, developing, _prices.toPrice(session.high), _prices.toPrice(session.low),
+                    previousRange, _prices.toPrice(_lastClose), position, extUp, extDown);
+        }
+    }
+
+    public static class Result
+    {
+        final public String symbol;
+        final public long startTime;
+        final public boolean developing;
+        final public double high;
+        final public double low;
+        final public double range;
+        // Range as a percentage of the IB mid, so ranges can be compared across instruments.
+        final public double rangePercent;
+        final public double previousRange;
+        final public double last;
+        final public int position;
+        // Last price relative to the IB mid in multiples of IB𝚫, beyond ±0.5 is outside the IB.
+        final public double offset;
+        final public double extUp;
+        final public double extDown;
+
+        Result(String symbol, long startTime, boolean developing, double high, double low, double previousRange, double last,
+               int position, double extUp, double extDown)
+        {
+            this.symbol = symbol;
+            this.startTime = startTime;
+            this.developing = developing;
+            this.high = high;
+            this.low = low;
+            this.range = high - low;
+            double mid = (high + low) / 2;
+            this.rangePercent = mid > 0 ? 100 * range / mid : Double.NaN;
+            this.previousRange = previousRange;
+            this.last = last;
+            this.position = position;
+            this.offset = range > 0 ? (last - mid) / range : 0;
+            this.extUp = extUp;
+            this.extDown = extDown;
+        }
+
+        /**
+         * @return the current IB𝚫 as a percentage change from the previous session's, or NaN if there is none
+         */
+        public double getRangeChange()
+        {
+            return previousRange > 0 ? 100 * (range / previousRange - 1) : Double.NaN;
+        }
+
+        public double getExtension()
+        {
+            return Math.max(extUp, extDown);
+        }
+    }
+
+    public final static String SORT_SYMBOL = "SYMBOL";
+    public final static String SORT_RANGE = "RANGE";
+    public final static String SORT_RANGE_CHANGE = "RANGE_CHANGE";
+    public final static String SORT_POSITION = "POSITION";
+    public final static String SORT_EXTENSION = "EXTENSION";
+
+    /**
+     * @param sortBy one of the SORT_ constants
+     * @return the ascending order for the given column, results without a value come last either way
+     */
+    public static Comparator<Result> comparator(String sortBy, boolean descending)
+    {
+        Comparator<Result> order = switch (sortBy)
+        {
+            case SORT_SYMBOL -> Comparator.comparing(r -> r.symbol);
+            case SORT_RANGE_CHANGE -> Comparator.comparingDouble(Result::getRangeChange);
+            case SORT_POSITION -> Comparator.comparingDouble(r -> r.offset);
+            case SORT_EXTENSION -> Comparator.comparingDouble(Result::getExtension);
+            default -> Comparator.comparingDouble(r -> r.rangePercent);
+        };
+        if (descending)
+            order = order.reversed();
+        return Comparator.comparing((Result r) -> sortBy.equals(SORT_RANGE_CHANGE) && Double.isNaN(r.getRangeChange()))
+                .thenComparing(order)
+                .thenComparing(r -> r.symbol);
+    }
+
+    /**
+     * Feeds a block of minute bars to every tracker.
+     * @param times bar start times shared by every column
+     * @param lows low columns in ticks, one per tracker, TickPrice.NONE where an instrument has no bar
+     * @param highs high columns in ticks
+     * @param closes close columns in ticks
+     * @param n number of bars in each column
+     * @param parallel feeds the trackers on the pool, worth it for history but not for the few bars of a live update
+     */
+    public static void feed(Tracker[] trackers, long[] times, long[][] lows, long[][] highs, long[][] closes, int n, boolean parallel)
+    {
+        if (!parallel)
+        {
+            for (int c = 0; c < trackers.length; c++)
+                feed(trackers[c], times, lows[c], highs[c], closes[c], n);
+            return;
+        }
+        POOL.submit(() -> IntStream.range(0, trackers.length).parallel()
+                .forEach(c -> feed(trackers[c], times, lows[c], highs[c], closes[c], n))).join();
+    }
+
+    private static void feed(Tracker tracker, long[] times, long[] lows, long[] highs, long[] closes, int n)
+    {
+        for (int i = 0; i < n; i++)
+        {
+            if (lows[i] != TickPrice.NONE)
+                tracker.onMinuteBar(times[i], lows[i], highs[i], closes[i]);
+        }
+    }
+
+    /**
+     * @return one result per tracker that has seen a session, in the given order
+     */
+    public static List<Result> results(Tracker[] trackers, long now, Comparator<Result> order)
+    {
+        var results = new ArrayList<Result>(trackers.length);
+        for (var tracker : trackers)
+        {
+            var r = tracker.getResult(now);
+            if (r != null)
+                results.add(r);
+        }
+        results.sort(order);
+        return results;
+    }
+}
@@ -0,0 +1,39 @@
+import java.util.function.Supplier;
+
+/**
+ * A figure's popup message, built the first time it is shown and kept until invalidated.
+ * Figures created for the whole history (one per session or gap) are rarely hovered over, so formatting their
+ * messages up front during a recalculation is mostly wasted.
+ */
+public class LazyPopup
+{
+    final private Supplier<String> _supplier;
+    private volatile String _message;
+
+    /**
+     * @param supplier builds the message, or returns null if there is nothing to show yet (which is not kept)
+     */
+    public LazyPopup(Supplier<String> supplier)
+    {
+        _supplier = supplier;
+    }
+
+    /**
+     * The message must be built again the next time it is shown.
+     */
+    public void invalidate()
+    {
+        _message = null;
+    }
+
+    public String get()
+    {
+        var message = _message;
+        if (message == null)
+        {
+            message = _supplier.get();
+            _message = message;
+        }
+        return message;
+    }
+}
@@ -0,0 +1,172 @@
+import java.util.EnumSet;
+
+/**
+ * Estimated memory held by one study instance, checked against a budget.
+ * The estimate is built from counts of what the study keeps (figures, exported values, caches) multiplied by
+ * rough per-object sizes, so it is cheap to keep up to date but is not a measurement of the heap.
+ * Once over budget the study degrades one step at a time, and stays degraded until it is recalculated.
+ */
+public class MemoryBudget
+{
+    public enum Step
+    {
+        NONE("Full detail"),
+        EVICT_HISTORY("Evicting old history"),
+        DROP_SCRATCH("Scratch values dropped"),
+        SKIP_MARKERS("Markers skipped");
+
+        final private String _description;
+
+        Step(String description)
+        {
+            _description = description;
+        }
+
+        public String getDescription()
+        {
+            return _description;
+        }
+    }
+
+    // Rough sizes on a 64-bit JVM with compressed pointers.
+    // A value exported on a bar is a boxed Double plus its entry in the bar's value map.
+    public final static long VALUE_BYTES = 48;
+    public final static long MARKER_BYTES = 160;
+    public final static long MB = 1024 * 1024;
+
+    final private EnumSet<Step> _steps;
+    private long _budget;
+    private Step _step = Step.NONE;
+    private long _figures;
+    private long _figureBytes;
+    private long _values;
+    private long _cacheBytes;
+    private long _evicted;
+
+    /**
+     * @param steps the degradation steps this study supports, taken in order
+     */
+    public MemoryBudget(EnumSet<Step> steps)
+    {
+        _steps = EnumSet.copyOf(steps);
+        _steps.remove(Step.NONE);
+    }
+
+    /**
+     * Clears the accounting and returns to full detail.
+     * @param budgetMB 0 for no limit
+     */
+    public synchronized void reset(int budgetMB)
+    {
+        _budget = budgetMB * MB;
+        _step = Step.NONE;
+        _figures = 0;
+        _figureBytes = 0;
+        _values = 0;
+        _cacheBytes = 0;
+        _evicted = 0;
+    }
+
+    public synchronized void setFigures(long count, long bytes)
+    {
+        _figures = count;
+        _figureBytes = bytes;
+    }
+
+    public synchronized void setValues(long count)
+    {
+        _values = count;
+    }
+
+    public synchronized void addValues(long count)
+    {
+        _values += count;
+    }
+
+    public synchronized void setCacheBytes(long bytes)
+    {
+        _cacheBytes = bytes;
+    }
+
+    public synchronized void addEvicted(long count)
+    {
+        _evicted += count;
+    }
+
+    public synchronized long getBudget()
+    {
+        return _budget;
+    }
+
+    public synchronized long getUsedBytes()
+    {
+        return _figureBytes + _values * VALUE_BYTES + _cacheBytes;
+    }
+
+    /**
+     * Bytes the budget leaves for exported values once figures and caches are counted.
+     * Long.MAX_VALUE if there is no limit.
+     */
+    public synchronized long getBytesForValues()
+    {
+        if (_budget <= 0)
+            return Long.MAX_VALUE;
+        return Math.max(0, _budget - _figureBytes - _cacheBytes);
+    }
+
+    public synchronized boolean isOverBudget()
+    {
+        return _budget > 0 && getUsedBytes() > _budget;
+    }
+
+    public synchronized Step getStep()
+    {
+        return _step;
+    }
+
+    public synchronized boolean isAtLeast(Step step)
+    {
+        return _step.compareTo(step) >= 0;
+    }
+
+    /**
+     * Moves to the next supported step.
+     * @return false if there are no steps left
+     */
+    public synchronized boolean degrade()
+    {
+        for (var step : _steps)
+        {
+            if (step.compareTo(_step) > 0)
+            {
+                _step = step;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized String describe()
+    {
+        var msg = new StringBuilder("Memory: ").append(formatMB(getUsedBytes()))
+                .append(_budget > 0 ? " of " + formatMB(_budget) : " (no budget)")
+                .append("\n  Figures: ").append(_figures).append(" (").append(formatMB(_figureBytes)).append(")")
+                .append("\n  Values: ").append(_values).append(" (").append(formatMB(_values * VALUE_BYTES)).append(")")
+                .append("\n  Caches: ").append(formatMB(_cacheBytes))
+                .append("\n").append(_step.getDescription());
+        if (_evicted > 0)
+            msg.append(", ").append(_evicted).append(" evicted");
+        return msg.toString();
+    }
+
+    public synchronized String summary()
+    {
+        return "Mem " + formatMB(getUsedBytes()) + (_budget > 0 ? " / " + formatMB(_budget) : "")
+                + (_step != Step.NONE ? " (" + _step.getDescription() + ")" : "");
+    }
+
+    private static String formatMB(long bytes)
+    {
+        return String.format("%.1f MB", bytes / (double)MB);
+    }
+}
@@ -0,0 +1,54 @@
+import com.motivewave.platform.sdk.common.DrawContext;
+import com.motivewave.platform.sdk.draw.Figure;
+
+import java.awt.*;
+
+/**
+ * A one line summary of a study's MemoryBudget in the bottom left corner of the plot,
+ * with the full breakdown in its popup.
+ */
+public class MemoryDiagnostics extends Figure
+{
+    final private static int PADDING = 4;
+    final private String _label;
+    final private MemoryBudget _budget;
+
+    public MemoryDiagnostics(String label, MemoryBudget budget)
+    {
+        _label = label;
+        _budget = budget;
+    }
+
+    @Override
+    public boolean contains(double x, double y, DrawContext ctx)
+    {
+        var bounds = getBounds();
+        return bounds != null && bounds.contains(x, y);
+    }
+
+    @Override
+    public String getPopupMessage(double x, double y, DrawContext ctx)
+    {
+        return _label + "\n" + _budget.describe();
+    }
+
+    @Override
+    public void draw(Graphics2D gc, DrawContext ctx)
+    {
+        var text = _label + " " + _budget.summary();
+        var defaults = ctx.getDefaults();
+        gc.setFont(defaults.getFont());
+        var fm = gc.getFontMetrics();
+        int w = fm.stringWidth(text) + 2 * PADDING;
+        int h = fm.getHeight() + 2 * PADDING;
+        var bounds = ctx.getBounds();
+        int x = bounds.x + PADDING;
+        int y = bounds.y + bounds.height - h - PADDING;
+        setBounds(new Rectangle(x, y, w, h));
+
+        gc.setColor(defaults.getBackgroundColor());
+        gc.fillRect(x, y, w, h);
+        gc.setColor(_budget.isOverBudget() ? defaults.getRed() : defaults.getTextColor());
+        gc.drawString(text, x + PADDING, y + PADDING + fm.getAscent());
+    }
+}
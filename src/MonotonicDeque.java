@@ -0,0 +1,79 @@
+/**
+ * Sliding window maximum (or minimum) over a stream of indexed values.
+ * Values that can never be the extreme of the window again are discarded as new values arrive,
+ * so each push costs amortized O(1) whatever the window length.
+ */
+public class MonotonicDeque
+{
+    final private int _window;
+    final private boolean _max;
+    final private int[] _idxs;
+    final private double[] _values;
+    private int _head;
+    private int _size;
+
+    /**
+     * @param window number of consecutive indices covered
+     * @param max true to track the maximum, false for the minimum
+     */
+    public MonotonicDeque(int window, boolean max)
+    {
+        _window = Math.max(1, window);
+        _max = max;
+        _idxs = new int[_window];
+        _values = new double[_window];
+    }
+
+    public void clear()
+    {
+        _head = 0;
+        _size = 0;
+    }
+
+    public boolean isEmpty()
+    {
+        return _size == 0;
+    }
+
+    /**
+     * Adds the value at idx, which must be greater than any index pushed before, and drops indices that have left the window.
+     * A later equal value replaces an earlier one as the extreme.
+     */
+    public void push(int idx, double value)
+    {
+        while (_size > 0 && !beats(_values[slot(_size - 1)], value))
+            _size--;
+        while (_size > 0 && _idxs[_head] <= idx - _window)
+        {
+            _head = (_head + 1) % _idxs.length;
+            _size--;
+        }
+        int slot = slot(_size);
+        _idxs[slot] = idx;
+        _values[slot] = value;
+        _size++;
+    }
+
+    /**
+     * Index of the extreme value in the window.
+     */
+    public int getIndex()
+    {
+        return _idxs[_head];
+    }
+
+    public double getValue()
+    {
+        return _values[_head];
+    }
+
+    private boolean beats(double existing, double value)
+    {
+        return _max ? existing > value : existing < value;
+    }
+
+    private int slot(int offset)
+    {
+        return (_head + offset) % _idxs.length;
+    }
+}
@@ -0,0 +1,155 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Non-overlapping price bands in ticks, kept sorted by their low price.
+ * Inserting a band merges it with every band it overlaps or touches, and removing a price range trims
+ * or splits the bands it overlaps. Both are O(log n) plus the number of bands merged or trimmed.
+ */
+public class PriceZoneSet
+{
+    public static class Zone
+    {
+        // In ticks.
+        final public long low;
+        final public long high;
+        // Time this zone was drawn from, when it was created, merged or trimmed.
+        final public long startTime;
+        // Start time of the oldest band merged into this zone.
+        final public long firstTime;
+        // Set once the zone has been merged into another, trimmed or filled.
+        public long endTime = Long.MAX_VALUE;
+        // Number of bands merged into this zone.
+        final public int count;
+
+        Zone(long low, long high, long startTime, long firstTime, int count)
+        {
+            this.low = low;
+            this.high = high;
+            this.startTime = startTime;
+            this.firstTime = firstTime;
+            this.count = count;
+        }
+
+        public boolean isOpen()
+        {
+            return endTime == Long.MAX_VALUE;
+        }
+    }
+
+    final private TreeMap<Long, Zone> _zones = new TreeMap<>();
+
+    public void clear()
+    {
+        _zones.clear();
+    }
+
+    public int size()
+    {
+        return _zones.size();
+    }
+
+    public Collection<Zone> getZones()
+    {
+        return _zones.values();
+    }
+
+    /**
+     * Returns the zone containing the price, or null.
+     */
+    public Zone find(long price)
+    {
+        var entry = _zones.floorEntry(price);
+        if (entry == null || entry.getValue().high < price)
+            return null;
+        return entry.getValue();
+    }
+
+    /**
+     * Adds the band [low, high] starting at time, merging it with any zones it overlaps or touches.
+     * Merged zones are closed and the merged zone is drawn from time.
+     * @return the zone now covering the band
+     */
+    public Zone insert(long low, long high, long time, List<Zone> closed)
+    {
+        long mergedLow = low;
+        long mergedHigh = high;
+        long firstTime = time;
+        int count = 1;
+
+        var below = _zones.floorEntry(low);
+        if (below != null && below.getValue().high >= low)
+        {
+            var zone = below.getValue();
+            _zones.remove(below.getKey());
+            mergedLow = zone.low;
+            mergedHigh = Math.max(mergedHigh, zone.high);
+            firstTime = Math.min(firstTime, zone.firstTime);
+            count += zone.count;
+            close(zone, time, closed);
+        }
+
+        var above = _zones.ceilingEntry(mergedLow);
+        while (above != null && above.getKey() <= mergedHigh)
+        {
+            var zone = above.getValue();
+            _zones.remove(above.getKey());
+            mergedHigh = Math.max(mergedHigh, zone.high);
+            firstTime = Math.min(firstTime, zone.firstTime);
+            count += zone.count;
+            close(zone, time, closed);
+            above = _zones.ceilingEntry(mergedLow);
+        }
+
+        var merged = new Zone(mergedLow, mergedHigh, time, firstTime, count);
+        _zones.put(mergedLow, merged);
+        return merged;
+    }
+
+    /**
+     * Removes the price range (low, high) traded at time. Zones overlapping it are closed, and any parts
+     * outside the range are reopened from time as new zones. Touching a zone's edge does not change it.
+     * @return the number of zones that were filled completely
+     */
+    public int remove(long low, long high, long time, List<Zone> closed)
+    {
+        var overlapping = new ArrayList<Zone>();
+        var first = _zones.floorEntry(low);
+        var from = first != null && first.getValue().high > low ? first.getKey() : low;
+        for (var zone : _zones.subMap(from, true, high, false).values())
+        {
+            if (zone.high > low && zone.low < high)
+                overlapping.add(zone);
+        }
+
+        int filled = 0;
+        for (var zone : overlapping)
+        {
+            _zones.remove(zone.low);
+            close(zone, time, closed);
+            boolean remaining = false;
+            if (zone.low < low)
+            {
+                _zones.put(zone.low, new Zone(zone.low, low, time, zone.firstTime, zone.count));
+                remaining = true;
+            }
+            if (zone.high > high)
+            {
+                _zones.put(high, new Zone(high, zone.high, time, zone.firstTime, zone.count));
+                remaining = true;
+            }
+            if (!remaining)
+                filled++;
+        }
+        return filled;
+    }
+
+    private static void close(Zone zone, long time, List<Zone> closed)
+    {
+        zone.endTime = time;
+        if (closed != null && time > zone.startTime)
+            closed.add(zone);
+    }
+}
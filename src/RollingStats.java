@@ -0,0 +1,125 @@
+import java.util.Arrays;
+
+/**
+ * Mean, standard deviation and percentile rank over the last N values.
+ * Values are held in a fixed-size ring buffer (for eviction order) and a sorted array (for rank queries),
+ * so adding a value never re-sorts the history and queries are O(1) / O(log N).
+ */
+public class RollingStats
+{
+    final private double[] _ring;
+    final private double[] _sorted;
+    private int _head;
+    private int _size;
+    private double _sum;
+    private double _sumSq;
+
+    public RollingStats(int capacity)
+    {
+        _ring = new double[Math.max(1, capacity)];
+        _sorted = new double[_ring.length];
+        _head = 0;
+        _size = 0;
+    }
+
+    public int size()
+    {
+        return _size;
+    }
+
+    public int capacity()
+    {
+        return _ring.length;
+    }
+
+    public void clear()
+    {
+        _head = 0;
+        _size = 0;
+        _sum = 0;
+        _sumSq = 0;
+    }
+
+    public void add(double value)
+    {
+        if (_size == _ring.length)
+        {
+            // Evict the oldest value.
+            double oldest = _ring[_head];
+            _sum -= oldest;
+            _sumSq -= oldest * oldest;
+            int idx = Arrays.binarySearch(_sorted, 0, _size, oldest);
+            System.arraycopy(_sorted, idx + 1, _sorted, idx, _size - idx - 1);
+            _size--;
+        }
+
+        _ring[_head] = value;
+        _head = (_head + 1) % _ring.length;
+        _sum += value;
+        _sumSq += value * value;
+
+        int idx = lowerBound(value);
+        System.arraycopy(_sorted, idx, _sorted, idx + 1, _size - idx);
+        _sorted[idx] = value;
+        _size++;
+    }
+
+    public Double mean()
+    {
+        if (_size == 0)
+            return null;
+        return _sum / _size;
+    }
+
+    /**
+     * Sample standard deviation of the values in the window.
+     */
+    public Double std()
+    {
+        if (_size < 2)
+            return null;
+        double mean = _sum / _size;
+        double variance = (_sumSq - _size * mean * mean) / (_size - 1);
+        return Math.sqrt(Math.max(0, variance));
+    }
+
+    /**
+     * Percentage (0-100) of the values in the window below the given value, counting equal values as half.
+     */
+    public Double percentileRank(double value)
+    {
+        if (_size == 0)
+            return null;
+        int below = lowerBound(value);
+        int equal = upperBound(value) - below;
+        return 100.0 * (below + 0.5 * equal) / _size;
+    }
+
+    private int lowerBound(double value)
+    {
+        int lo = 0, hi = _size;
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (_sorted[mid] < value)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    private int upperBound(double value)
+    {
+        int lo = 0, hi = _size;
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (_sorted[mid] <= value)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+}
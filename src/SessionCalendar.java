@@ -0,0 +1,97 @@
+import com.motivewave.platform.sdk.common.Util;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable calendar of session start/end times for a time zone and a time-of-day timeframe
+ * (start/end given as millis from midnight, as used by TimeFrame).
+ * Sessions are stored as primitive epoch millis, built once and shared between study instances.
+ * Start/end times are resolved as wall-clock times in the time zone, so DST changes are handled.
+ */
+public class SessionCalendar
+{
+    private static final ConcurrentHashMap<String, SessionCalendar> _cache = new ConcurrentHashMap<>();
+
+    final private long _firstDay;
+    final private long _lastDay;
+    final private long[] _startTimes;
+    final private long[] _endTimes;
+
+    private SessionCalendar(ZoneId zone, int tfStart, int tfEnd, long firstDay, long lastDay)
+    {
+        _firstDay = firstDay;
+        _lastDay = lastDay;
+        int size = (int)(lastDay - firstDay + 1);
+        _startTimes = new long[size];
+        _endTimes = new long[size];
+        int endDayOffset = tfStart > tfEnd ? 1 : 0;
+        for (int i = 0; i < size; i++)
+        {
+            var date = LocalDate.ofEpochDay(firstDay + i);
+            _startTimes[i] = toEpochMillis(date, tfStart, zone);
+            _endTimes[i] = toEpochMillis(date.plusDays(endDayOffset), tfEnd, zone);
+        }
+    }
+
+    /**
+     * Returns a calendar covering at least the given time range, reusing a cached calendar when possible.
+     */
+    public static SessionCalendar get(TimeZone timeZone, int tfStart, int tfEnd, long fromTime, long toTime)
+    {
+        var zone = timeZone.toZoneId();
+        long firstDay = Instant.ofEpochMilli(fromTime).atZone(zone).toLocalDate().toEpochDay() - 1;
+        long lastDay = Instant.ofEpochMilli(toTime).atZone(zone).toLocalDate().toEpochDay();
+        String key = zone.getId() + ":" + tfStart + "-" + tfEnd;
+
+        return _cache.compute(key, (k, cached) -> {
+            if (cached != null && cached._firstDay <= firstDay && cached._lastDay >= lastDay)
+                return cached;
+            // Grow to cover both the cached range and the requested one, so charts with different histories share a calendar.
+            long first = cached != null ? Math.min(cached._firstDay, firstDay) : firstDay;
+            long last = cached != null ? Math.max(cached._lastDay, lastDay) : lastDay;
+            return new SessionCalendar(zone, tfStart, tfEnd, first, last);
+        });
+    }
+
+    public int size()
+    {
+        return _startTimes.length;
+    }
+
+    public long getStartTime(int idx)
+    {
+        return _startTimes[idx];
+    }
+
+    public long getEndTime(int idx)
+    {
+        return _endTimes[idx];
+    }
+
+    /**
+     * Returns the index of the first session that ends after the given time, or size() if there is none.
+     */
+    public int findIndex(long time)
+    {
+        int idx = Arrays.binarySearch(_endTimes, time);
+        return idx >= 0 ? idx + 1 : -idx - 1;
+    }
+
+    private static long toEpochMillis(LocalDate date, int millisOfDay, ZoneId zone)
+    {
+        // A timeframe may end at midnight, which LocalTime cannot represent as a time of day.
+        long days = millisOfDay / Util.MILLIS_IN_DAY;
+        long millis = millisOfDay % Util.MILLIS_IN_DAY;
+        return date.plusDays(days)
+                .atTime(LocalTime.ofNanoOfDay(millis * 1_000_000L))
+                .atZone(zone)
+                .toInstant()
+                .toEpochMilli();
+    }
+}
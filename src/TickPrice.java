@@ -0,0 +1,57 @@
+import com.motivewave.platform.sdk.common.Instrument;
+
+/**
+ * Converts between prices and whole numbers of ticks for one instrument.
+ * Bar prices are converted once as they are read, so range, gap and level comparisons are exact integer
+ * comparisons, and ticks are only converted back to prices for drawing and exported values.
+ */
+public class TickPrice
+{
+    // Marks a price that has not been set.
+    public final static long NONE = Long.MIN_VALUE;
+
+    final private double _tickSize;
+    final private double _ticksPerPoint;
+
+    public TickPrice(double tickSize)
+    {
+        _tickSize = tickSize;
+        _ticksPerPoint = 1.0 / tickSize;
+    }
+
+    public static TickPrice of(Instrument instrument)
+    {
+        return new TickPrice(instrument.getTickSize());
+    }
+
+    public double getTickSize()
+    {
+        return _tickSize;
+    }
+
+    public long toTicks(double price)
+    {
+        return Math.round(price * _ticksPerPoint);
+    }
+
+    public double toPrice(long ticks)
+    {
+        return ticks * _tickSize;
+    }
+
+    /**
+     * Converts a price held in half ticks, e.g. a level halfway across a range with an odd number of ticks.
+     */
+    public double toPriceFromHalfTicks(long halfTicks)
+    {
+        return halfTicks * _tickSize / 2.0;
+    }
+
+    /**
+     * The tick halfway between two prices, rounding half a tick up.
+     */
+    public static long mid(long lowTicks, long highTicks)
+    {
+        return Math.floorDiv(lowTicks + highTicks + 1, 2);
+    }
+}
@@ -1,6 +1,14 @@
 import com.motivewave.platform.sdk.common.*;
+import com.motivewave.platform.sdk.common.desc.BarSizeDescriptor;
+import com.motivewave.platform.sdk.common.desc.BooleanDescriptor;
+import com.motivewave.platform.sdk.common.desc.EnabledDependency;
+import com.motivewave.platform.sdk.common.desc.InputDependency;
+import com.motivewave.platform.sdk.common.desc.IntegerDescriptor;
+import com.motivewave.platform.sdk.common.desc.LabelDescriptor;
 import com.motivewave.platform.sdk.common.desc.MarkerDescriptor;
 import com.motivewave.platform.sdk.common.desc.PathDescriptor;
+import com.motivewave.platform.sdk.common.desc.StringDescriptor;
+import com.motivewave.platform.sdk.common.desc.ValueDescriptor;
 import com.motivewave.platform.sdk.draw.Figure;
 import com.motivewave.platform.sdk.draw.Marker;
 import com.motivewave.platform.sdk.study.Study;
@@ -8,6 +16,10 @@ import com.motivewave.platform.sdk.study.StudyHeader;
 
 import java.awt.*;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.TreeSet;
 
 @StudyHeader(
         namespace="gambcl.motivewave",
@@ -26,30 +38,53 @@ public class VolumeImbalances extends Study
         Bearish
     }
 
+    enum Values
+    {
+        FILL_RATE,
+        MEDIAN_BARS_TO_FILL,
+        NEAREST_GAP_ABOVE,
+        NEAREST_GAP_BELOW
+    }
+
+    enum Signals
+    {
+        NEW_BULLISH_IMBALANCE,
+        NEW_BEARISH_IMBALANCE,
+        IMBALANCE_FILLED
+    }
+
     class VolumeImbalance extends Figure
     {
         private long _startTime;
         private long _startBarIdx;
         private Direction _direction;
-        private double _high;
-        private double _low;
+        // Prices in ticks, converted back for drawing.
+        private long _high;
+        private long _low;
+        final private long _gapHigh;
+        final private long _gapLow;
         private boolean _filled;
         private Long _filledTime;
         private Long _filledBarIdx;
         private Marker _marker;
         private boolean _active;
+        private int _eventIdx;
+        final private LazyPopup _popup = new LazyPopup(this::popupMessage);
 
-        VolumeImbalance(long startTime, long startBarIdx, Direction direction, double high, double low)
+        VolumeImbalance(long startTime, long startBarIdx, Direction direction, long high, long low)
         {
             _startTime = startTime;
             _startBarIdx = startBarIdx;
             _direction = direction;
             _high = high;
             _low = low;
+            _gapHigh = high;
+            _gapLow = low;
             _filled = false;
             _filledTime = null;
             _filledBarIdx = null;
             _active = false;
+            _eventIdx = -1;
         }
 
         public long getStartTime()
@@ -69,14 +104,47 @@ public class VolumeImbalances extends Study
 
         public double getHigh()
         {
-            return _high;
+            return _prices.toPrice(_high);
         }
 
         public double getLow()
+        {
+            return _prices.toPrice(_low);
+        }
+
+        public long getHighTicks()
+        {
+            return _high;
+        }
+
+        public long getLowTicks()
         {
             return _low;
         }
 
+        /**
+         * Size of the gap when it was created, in ticks.
+         */
+        public int getGapTicks()
+        {
+            return (int)(_gapHigh - _gapLow);
+        }
+
+        public boolean isPartiallyFilled()
+        {
+            return _high != _gapHigh || _low != _gapLow;
+        }
+
+        /**
+         * Shrinks the unfilled part of the gap after price has traded into it.
+         */
+        public void setUnfilled(long low, long high)
+        {
+            _low = low;
+            _high = high;
+            _popup.invalidate();
+        }
+
         public boolean isFilled()
         {
             return _filled;
@@ -89,6 +157,16 @@ public class VolumeImbalances extends Study
             _filledBarIdx = filledBarIdx;
         }
 
+        public int getEventIdx()
+        {
+            return _eventIdx;
+        }
+
+        public void setEventIdx(int eventIdx)
+        {
+            _eventIdx = eventIdx;
+        }
+
         public Marker getMarker()
         {
             return _marker;
@@ -96,7 +174,14 @@ public class VolumeImbalances extends Study
 
         public void setMarker(Marker marker)
         {
+            if (marker != null && _memory.isAtLeast(MemoryBudget.Step.SKIP_MARKERS))
+                return;
+            _markerCount += (marker != null ? 1 : 0) - (_marker != null ? 1 : 0);
+            if (_active && _marker != null)
+                removeFigure(_marker);
             _marker = marker;
+            if (_active && _marker != null)
+                addFigure(_marker);
         }
 
         public boolean isActive()
@@ -111,14 +196,12 @@ public class VolumeImbalances extends Study
 
             if (!active)
             {
-                setPopupMessage(null);
                 removeFigure(this);
                 if (_marker != null)
                     removeFigure(_marker);
             }
             else
             {
-                setPopupMessage(_direction == Direction.Bullish ? "Bullish Volume Imbalance " + format(_high) : "Bearish Volume Imbalance " + format(_low));
                 addFigure(this);
                 if (_marker != null)
                     addFigure(_marker);
@@ -126,6 +209,22 @@ public class VolumeImbalances extends Study
             _active = active;
         }
 
+        private String popupMessage()
+        {
+            if (!_active)
+                return null;
+            String msg = _direction == Direction.Bullish ? "Bullish Volume Imbalance " + format(_prices.toPrice(_gapHigh)) : "Bearish Volume Imbalance " + format(_prices.toPrice(_gapLow));
+            if (isPartiallyFilled())
+                msg += "\nUnfilled " + format(getLow()) + " - " + format(getHigh());
+            return msg;
+        }
+
+        @Override
+        public String getPopupMessage(double x, double y, DrawContext ctx)
+        {
+            return _popup.get();
+        }
+
         @Override
         public boolean contains(double x, double y, DrawContext ctx)
         {
@@ -146,8 +245,8 @@ public class VolumeImbalances extends Study
             if ((_direction == Direction.Bullish && pathBullish != null && pathBullish.isEnabled()) ||
                     (_direction == Direction.Bearish && pathBearish != null && pathBearish.isEnabled()))
             {
-                var topY = ctx.translateValue(_high);
-                var bottomY = ctx.translateValue(_low);
+                var topY = ctx.translateValue(getHigh());
+                var bottomY = ctx.translateValue(getLow());
                 if (y >= topY && y <= bottomY)
                     return true;
             }
@@ -166,14 +265,14 @@ public class VolumeImbalances extends Study
 
             if (_direction == Direction.Bullish && bullishPath != null)
             {
-                var y = ctx.translateValue(_high);
+                var y = ctx.translateValue(getHigh());
                 gc.setColor(bullishPath.getColor());
                 gc.setStroke(ctx.isSelected() ? bullishPath.getSelectedStroke() : bullishPath.getStroke());
                 gc.drawLine(leftX, y, rightX, y);
             }
             else if (_direction == Direction.Bearish && bearishPath != null)
             {
-                var y = ctx.translateValue(_low);
+                var y = ctx.translateValue(getLow());
                 gc.setColor(bearishPath.getColor());
                 gc.setStroke(ctx.isSelected() ? bearishPath.getSelectedStroke() : bearishPath.getStroke());
                 gc.drawLine(leftX, y, rightX, y);
@@ -181,16 +280,266 @@ public class VolumeImbalances extends Study
         }
     }
 
+    class FillStatsSummary extends Figure
+    {
+        final private static int PADDING = 4;
+
+        @Override
+        public boolean contains(double x, double y, DrawContext ctx)
+        {
+            var bounds = getBounds();
+            return bounds != null && bounds.contains(x, y);
+        }
+
+        @Override
+        public String getPopupMessage(double x, double y, DrawContext ctx)
+        {
+            var msg = new StringBuilder("Volume Imbalance Fill Rate By Size");
+            for (int dir = ImbalanceFillStats.BULLISH; dir <= ImbalanceFillStats.BEARISH; dir++)
+            {
+                msg.append(dir == ImbalanceFillStats.BULLISH ? "\nBullish:" : "\nBearish:");
+                for (int ticks = 1; ticks <= ImbalanceFillStats.MAX_TICKS; ticks++)
+                {
+                    var rate = _fillStats.getFillRate(dir, ticks);
+                    if (rate == null)
+                        continue;
+                    var median = _fillStats.getMedianBarsToFill(dir, ticks);
+                    msg.append("\n  ").append(ticks).append(ticks == ImbalanceFillStats.MAX_TICKS ? "+" : "").append(" ticks: ")
+                            .append(Math.round(rate)).append("% of ").append(_fillStats.getOpened(dir, ticks))
+                            .append(median != null ? ", median " + median + " bars" : "");
+                }
+            }
+            return msg.toString();
+        }
+
+        @Override
+        public void draw(Graphics2D gc, DrawContext ctx)
+        {
+            String[] lines = {
+                    "Volume Imbalance Fills",
+                    summaryLine("Bullish", ImbalanceFillStats.BULLISH),
+                    summaryLine("Bearish", ImbalanceFillStats.BEARISH)
+            };
+
+            var defaults = ctx.getDefaults();
+            gc.setFont(defaults.getFont());
+            var fm = gc.getFontMetrics();
+            int w = 0;
+            for (var line : lines)
+                w = Math.max(w, fm.stringWidth(line));
+            int h = lines.length * fm.getHeight();
+            var bounds = ctx.getBounds();
+            int x = bounds.x + PADDING;
+            int y = bounds.y + PADDING;
+            setBounds(new Rectangle(x, y, w + 2 * PADDING, h + 2 * PADDING));
+
+            gc.setColor(defaults.getBackgroundColor());
+            gc.fillRect(x, y, w + 2 * PADDING, h + 2 * PADDING);
+            gc.setColor(defaults.getTextColor());
+            for (int i = 0; i < lines.length; i++)
+                gc.drawString(lines[i], x + PADDING, y + PADDING + fm.getAscent() + i * fm.getHeight());
+        }
+
+        private String summaryLine(String label, int direction)
+        {
+            var rate = _fillStats.getFillRate(direction);
+            if (rate == null)
+                return label + ": -";
+            var median = _fillStats.getMedianBarsToFill(direction);
+            return label + ": " + Math.round(rate) + "% of " + _fillStats.getOpened(direction) + (median != null ? ", median " + median + " bars" : "");
+        }
+    }
+
+    /**
+     * Zone mode: every merged band of open imbalances, plus the closed parts of earlier bands, drawn by a single figure.
+     */
+    class ImbalanceZones extends Figure
+    {
+        // Closed zones in order of end time.
+        final private ArrayList<PriceZoneSet.Zone> _bullishClosed = new ArrayList<>();
+        final private ArrayList<PriceZoneSet.Zone> _bearishClosed = new ArrayList<>();
+        private PriceZoneSet.Zone _hover;
+        private boolean _hoverBullish;
+
+        synchronized void clear()
+        {
+            _bullishZones.clear();
+            _bearishZones.clear();
+            _bullishClosed.clear();
+            _bearishClosed.clear();
+        }
+
+        synchronized int size()
+        {
+            return _bullishZones.size() + _bearishZones.size() + _bullishClosed.size() + _bearishClosed.size();
+        }
+
+        /**
+         * Removes up to count of the closed zones that ended first.
+         * @return the number removed
+         */
+        synchronized int evictClosed(int count)
+        {
+            int bullish = 0, bearish = 0;
+            while (bullish + bearish < count && (bullish < _bullishClosed.size() || bearish < _bearishClosed.size()))
+            {
+                if (bearish >= _bearishClosed.size() ||
+                        (bullish < _bullishClosed.size() && _bullishClosed.get(bullish).endTime <= _bearishClosed.get(bearish).endTime))
+                    bullish++;
+                else
+                    bearish++;
+            }
+            _bullishClosed.subList(0, bullish).clear();
+            _bearishClosed.subList(0, bearish).clear();
+            return bullish + bearish;
+        }
+
+        synchronized void insert(boolean bullish, long low, long high, long time)
+        {
+            if (bullish)
+                _bullishZones.insert(low, high, time, _bullishClosed);
+            else
+                _bearishZones.insert(low, high, time, _bearishClosed);
+        }
+
+        /**
+         * @return the number of zones filled completely
+         */
+        synchronized int remove(long low, long high, long time)
+        {
+            return _bullishZones.remove(low, high, time, _bullishClosed) + _bearishZones.remove(low, high, time, _bearishClosed);
+        }
+
+        @Override
+        public synchronized boolean contains(double x, double y, DrawContext ctx)
+        {
+            long price = _prices.toTicks(ctx.translate2Value(y));
+            long time = ctx.translate2Time(x);
+            _hover = _bullishZones.find(price);
+            _hoverBullish = true;
+            if (_hover == null)
+            {
+                _hover = _bearishZones.find(price);
+                _hoverBullish = false;
+            }
+            return _hover != null && time >= _hover.startTime;
+        }
+
+        @Override
+        public synchronized String getPopupMessage(double x, double y, DrawContext ctx)
+        {
+            if (_hover == null)
+                return null;
+            return (_hoverBullish ? "Bullish Volume Imbalance Zone " : "Bearish Volume Imbalance Zone ")
+                    + format(_prices.toPrice(_hover.low)) + " - " + format(_prices.toPrice(_hover.high))
+                    + (_hover.count > 1 ? "\n" + _hover.count + " imbalances" : "");
+        }
+
+        @Override
+        public synchronized void draw(Graphics2D gc, DrawContext ctx)
+        {
+            var settings = ctx.getSettings();
+            var bullishPath = settings.getPath(SHOW_BULLISH);
+            var bearishPath = settings.getPath(SHOW_BEARISH);
+            if (bullishPath != null && bullishPath.isEnabled())
+            {
+                gc.setColor(zoneColor(bullishPath.getColor()));
+                for (var zone : _bullishZones.getZones())
+                    drawZone(gc, ctx, zone);
+                drawClosed(gc, ctx, _bullishClosed);
+            }
+            if (bearishPath != null && bearishPath.isEnabled())
+            {
+                gc.setColor(zoneColor(bearishPath.getColor()));
+                for (var zone : _bearishZones.getZones())
+                    drawZone(gc, ctx, zone);
+                drawClosed(gc, ctx, _bearishClosed);
+            }
+        }
+
+        private void drawClosed(Graphics2D gc, DrawContext ctx, ArrayList<PriceZoneSet.Zone> closed)
+        {
+            // Only closed zones ending after the left edge of the chart can be visible.
+            long leftTime = ctx.translate2Time(ctx.getBounds().getMinX());
+            int lo = 0, hi = closed.size();
+            while (lo < hi)
+            {
+                int mid = (lo + hi) >>> 1;
+                if (closed.get(mid).endTime < leftTime)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            for (int i = lo; i < closed.size(); i++)
+                drawZone(gc, ctx, closed.get(i));
+        }
+
+        private void drawZone(Graphics2D gc, DrawContext ctx, PriceZoneSet.Zone zone)
+        {
+            var bounds = ctx.getBounds();
+            int leftX = ctx.translateTime(zone.startTime);
+            int rightX = zone.isOpen() ? (int)bounds.getMaxX() : ctx.translateTime(zone.endTime);
+            if (rightX < bounds.getMinX() || leftX > bounds.getMaxX())
+                return;
+            int topY = ctx.translateValue(_prices.toPrice(zone.high));
+            int bottomY = ctx.translateValue(_prices.toPrice(zone.low));
+            gc.fillRect(leftX, topY, Math.max(1, rightX - leftX), Math.max(1, bottomY - topY));
+        }
+
+        private Color zoneColor(Color color)
+        {
+            return new Color(color.getRed(), color.getGreen(), color.getBlue(), ZONE_ALPHA);
+        }
+    }
+
     final static String SHOW_BULLISH = "showBullish";
     final static String SHOW_BEARISH = "showBearish";
     final static String BULLISH_MARKER = "bullishMarker";
     final static String BEARISH_MARKER = "bearishMarker";
+    final static String USE_DETECTION_BAR_SIZE = "useDetectionBarSize";
+    final static String DETECTION_BAR_SIZE = "detectionBarSize";
+    final static String SHOW_FILL_STATS = "showFillStats";
+    final static String ZONE_MODE = "zoneMode";
+    final static String MEMORY_BUDGET = "memoryBudget";
+    final static String SHOW_MEMORY_USAGE = "showMemoryUsage";
+    final static String EXPORT = "export";
+    final static String EXPORT_DIRECTORY = "exportDirectory";
+    // Rough sizes of an imbalance figure, a zone and an entry in a price index.
+    final static long IMBALANCE_BYTES = 200;
+    final static long ZONE_BYTES = 96;
+    final static long INDEX_ENTRY_BYTES = 40;
+    final static int ZONE_ALPHA = 80;
     final static int MIN_TICKS = 1;
-    final ArrayList<VolumeImbalance> _unfilled = new ArrayList<>();
+    // In creation order, so the imbalance of the bar being updated is the last one, with constant time removal on fill.
+    final LinkedHashSet<VolumeImbalance> _unfilled = new LinkedHashSet<>();
     final ArrayList<VolumeImbalance> _filled = new ArrayList<>();
+    // Open, active imbalances ordered by the edge price trades into: bullish gaps (below price) by their unfilled high,
+    // bearish gaps (above price) by their unfilled low.
+    final TreeSet<VolumeImbalance> _bullishByHigh = new TreeSet<>(Comparator.comparingLong(VolumeImbalance::getHighTicks).thenComparingLong(VolumeImbalance::getStartBarIdx));
+    final TreeSet<VolumeImbalance> _bearishByLow = new TreeSet<>(Comparator.comparingLong(VolumeImbalance::getLowTicks).thenComparingLong(VolumeImbalance::getStartBarIdx));
     long _prevStartTime = 0;
     double _prevHigh = Double.MIN_VALUE;
     double _prevLow = Double.MAX_VALUE;
+    // Signals found by a bar update are collected and delivered at the end of it, so fills on one bar can be coalesced.
+    final ArrayList<PendingSignal> _pendingSignals = new ArrayList<>();
+    boolean _signalling = false;
+    final ImbalanceFillStats _fillStats = new ImbalanceFillStats();
+    ImbalanceEventIndex _eventIndex = null;
+    TickPrice _prices = null;
+    final PriceZoneSet _bullishZones = new PriceZoneSet();
+    final PriceZoneSet _bearishZones = new PriceZoneSet();
+    final ImbalanceZones _zones = new ImbalanceZones();
+    int _zoneBarIdx = -1;
+    int _projectedCount = 0;
+    int _projectedGeneration = 0;
+    final MemoryBudget _memory = new MemoryBudget(EnumSet.allOf(MemoryBudget.Step.class));
+    final MemoryDiagnostics _diagnostics = new MemoryDiagnostics("Volume Imbalances", _memory);
+    int _markerCount = 0;
+    int _memoryBarCount = 0;
+    // Opened and filled imbalances are exported as they are signalled, see ColumnarExporter.
+    ColumnarExporter.Stream _export = null;
+    // Rows the export had no room for, the whole history can be exported in one calculation.
+    final ColumnarExporter.Backlog _exportBacklog = new ColumnarExporter.Backlog();
 
     @Override
     public void initialize(Defaults defaults)
@@ -205,38 +554,161 @@ public class VolumeImbalances extends Study
         var pathBearish = new PathDescriptor(SHOW_BEARISH, "Show Bearish", Util.awtColor(238, 130, 238, 255), 4.0f, null, true, false, true);
         pathBearish.setSupportsAdvancedPanel(false);
         grpInputs.addRow(pathBearish);
+        grpInputs.addRow(new BooleanDescriptor(ZONE_MODE, "Merge Into Zones", false));
+        grpInputs.addRow(new LabelDescriptor("Zones only shrink by the prices traded, a bar that gaps past one leaves it open. No nearest gap values."));
 
         var grpMarkers = tabGeneral.addGroup("Markers");
         grpMarkers.addRow(new MarkerDescriptor(BULLISH_MARKER, "Bullish", Enums.MarkerType.TRIANGLE, Enums.Size.MEDIUM, Util.awtColor(0, 255, 255, 255), defaults.getLineColor(), true, true));
         grpMarkers.addRow(new MarkerDescriptor(BEARISH_MARKER, "Bearish", Enums.MarkerType.TRIANGLE, Enums.Size.MEDIUM, Util.awtColor(238, 130, 238, 255), defaults.getLineColor(), true, true));
 
+        var grpDetection = tabGeneral.addGroup("Detection");
+        grpDetection.addRow(new BooleanDescriptor(USE_DETECTION_BAR_SIZE, "Detect On Base Bar Size", false));
+        grpDetection.addRow(new BarSizeDescriptor(DETECTION_BAR_SIZE, "Base Bar Size", BarSize.getBarSize(Enums.BarSizeType.LINEAR, Enums.IntervalType.MINUTE, 1)));
+        grpDetection.addRow(new LabelDescriptor("Gaps fill when the far edge is reached, as on the chart, but are not shown partly filled. No nearest gap values."));
+        sd.addDependency(new InputDependency(USE_DETECTION_BAR_SIZE, DETECTION_BAR_SIZE));
+
+        var grpAnalysis = tabGeneral.addGroup("Analysis");
+        grpAnalysis.addRow(new BooleanDescriptor(SHOW_FILL_STATS, "Show Fill Statistics", false));
+        // Detecting on the base bar size projects its events as they are, so zones and fill statistics don't apply.
+        sd.addDependency(new EnabledDependency(false, USE_DETECTION_BAR_SIZE, ZONE_MODE));
+        var fillStatsDependency = new EnabledDependency(false, USE_DETECTION_BAR_SIZE, SHOW_FILL_STATS);
+        fillStatsDependency.setSource2(ZONE_MODE, false);
+        sd.addDependency(fillStatsDependency);
+
+        var grpMemory = tabGeneral.addGroup("Memory");
+        grpMemory.addRow(new IntegerDescriptor(MEMORY_BUDGET, "Memory Budget (MB, 0 = None)", 64, 0, 4096, 1));
+        grpMemory.addRow(new BooleanDescriptor(SHOW_MEMORY_USAGE, "Show Memory Usage", false));
+
+        var grpExport = tabGeneral.addGroup("Export");
+        grpExport.addRow(new BooleanDescriptor(EXPORT, "Export To Files", false));
+        grpExport.addRow(new StringDescriptor(EXPORT_DIRECTORY, "Directory", ColumnarExporter.DEFAULT_DIRECTORY));
+        sd.addDependency(new InputDependency(EXPORT, EXPORT_DIRECTORY));
+
         sd.addQuickSettings(SHOW_BULLISH, SHOW_BEARISH);
 
         var rd = createRD();
         rd.setLabelPrefix("Volume Imbalances");
+
+        rd.declareSignal(Signals.NEW_BULLISH_IMBALANCE, "New Bullish Volume Imbalance");
+        rd.declareSignal(Signals.NEW_BEARISH_IMBALANCE, "New Bearish Volume Imbalance");
+        rd.declareSignal(Signals.IMBALANCE_FILLED, "Volume Imbalance Filled");
+
+        rd.exportValue(new ValueDescriptor(Values.FILL_RATE, "Historical Fill Rate %", new String[] {}));
+        rd.exportValue(new ValueDescriptor(Values.MEDIAN_BARS_TO_FILL, "Historical Median Bars To Fill", new String[] {}));
+        rd.exportValue(new ValueDescriptor(Values.NEAREST_GAP_ABOVE, "Nearest Open Gap Above", new String[] {}));
+        rd.exportValue(new ValueDescriptor(Values.NEAREST_GAP_BELOW, "Nearest Open Gap Below", new String[] {}));
     }
 
     @Override
     protected void calculateValues(DataContext ctx)
     {
+        // Historical imbalances are not signalled, only those found by bar updates.
+        _signalling = false;
+        _pendingSignals.clear();
         clearFigures();
         _unfilled.clear();
         _filled.clear();
+        _bullishByHigh.clear();
+        _bearishByLow.clear();
+        // Kept while recalculating, so the shared index is not dropped and rebuilt if it is used again.
+        var eventIndex = _eventIndex;
+        _eventIndex = null;
+        if (!getSettings().getBoolean(USE_DETECTION_BAR_SIZE, false))
+            ImbalanceEventIndex.release(eventIndex);
+        _projectedCount = 0;
+        _fillStats.clear();
+        _prices = TickPrice.of(ctx.getInstrument());
+        // Clears the zone sets as well, under the figure's lock, since draw() may be iterating them.
+        _zones.clear();
+        _zoneBarIdx = 0;
+        _markerCount = 0;
+        _memory.reset(getSettings().getInteger(MEMORY_BUDGET, 64));
+        if (getSettings().getBoolean(SHOW_MEMORY_USAGE, false))
+            addFigure(_diagnostics);
+        _exportBacklog.clear();
+        updateExport(ctx);
+        if (_export != null)
+            _export.setReplay(true);
 
         var series = ctx.getDataSeries();
-        for (int currIdx = 0; currIdx < series.size(); currIdx++)
+        if (getSettings().getBoolean(USE_DETECTION_BAR_SIZE, false))
         {
-            if (currIdx == 0)
-                continue;
+            calculateFromBaseSeries(ctx, eventIndex);
+        }
+        else if (getSettings().getBoolean(ZONE_MODE, false))
+        {
+            updateZones(ctx);
+            addFigure(_zones);
+        }
+        else
+        {
+            for (int currIdx = 0; currIdx < series.size(); currIdx++)
+            {
+                if (currIdx == 0)
+                    continue;
+
+                detectFilledVolumeImbalances(ctx, currIdx, true, true);
+                detectUnfilledVolumeImbalances(ctx, currIdx);
+                exportNearestGaps(series, currIdx);
+            }
 
-            detectFilledVolumeImbalances(ctx, currIdx, true, true);
-            detectUnfilledVolumeImbalances(ctx, currIdx);
+            if (getSettings().getBoolean(SHOW_FILL_STATS, false))
+                addFigure(new FillStatsSummary());
+        }
+        enforceMemoryBudget(series);
+        if (_export != null)
+        {
+            _export.setReplay(false);
+            _exportBacklog.flush(_export);
         }
     }
 
+    @Override
+    public void destroy()
+    {
+        if (_export != null)
+            _export.close();
+        ImbalanceEventIndex.release(_eventIndex);
+        _eventIndex = null;
+        super.destroy();
+    }
+
     @Override
     public void onBarUpdate(DataContext ctx)
     {
+        _signalling = true;
+        updateBar(ctx);
+        deliverSignals(ctx);
+    }
+
+    private void updateBar(DataContext ctx)
+    {
+        if (_export != null)
+            _exportBacklog.flush(_export);
+        if (ctx.getDataSeries().size() != _memoryBarCount)
+            enforceMemoryBudget(ctx.getDataSeries());
+        if (_eventIndex != null)
+        {
+            synchronized (_eventIndex)
+            {
+                _eventIndex.update(ctx.getDataSeries(getSettings().getBarSize(DETECTION_BAR_SIZE)));
+                if (_eventIndex.getGeneration() == _projectedGeneration)
+                {
+                    projectEvents(ctx);
+                    return;
+                }
+            }
+            // The shared index was rebuilt (e.g. another chart loaded more history), so re-project everything.
+            calculateValues(ctx);
+            return;
+        }
+
+        if (getSettings().getBoolean(ZONE_MODE, false))
+        {
+            updateZones(ctx);
+            return;
+        }
+
         var series = ctx.getDataSeries();
         int currIdx = series.size() - 1;
         boolean newBar = series.getStartTime(currIdx) != _prevStartTime;
@@ -256,12 +728,231 @@ public class VolumeImbalances extends Study
 
         // Detect new VolumeImbalance.
         detectUnfilledVolumeImbalances(ctx, currIdx);
+        exportNearestGaps(series, currIdx);
 
         _prevStartTime = series.getStartTime(currIdx);
         _prevHigh = series.getHigh(currIdx);
         _prevLow = series.getLow(currIdx);
     }
 
+    /**
+     * @param previous the index used before the recalculation, kept if it is still the right one and released otherwise
+     */
+    private void calculateFromBaseSeries(DataContext ctx, ImbalanceEventIndex previous)
+    {
+        var barSize = getSettings().getBarSize(DETECTION_BAR_SIZE);
+        var baseSeries = ctx.getDataSeries(barSize);
+        if (barSize == null || baseSeries == null)
+        {
+            ImbalanceEventIndex.release(previous);
+            return;
+        }
+
+        // Detection runs once per instrument/base bar size, other study instances reuse the same events.
+        _eventIndex = ImbalanceEventIndex.acquire(previous, ctx.getInstrument(), barSize);
+        synchronized (_eventIndex)
+        {
+            _eventIndex.update(baseSeries);
+            _projectedGeneration = _eventIndex.getGeneration();
+            projectEvents(ctx);
+        }
+    }
+
+    /**
+     * Projects events from the base series index onto the chart's bars: new events become figures
+     * at the chart bar containing their start time, and fills are moved to the chart bar containing the fill time.
+     * Must hold the index's lock, so every event read comes from the same build of the index.
+     */
+    private void projectEvents(DataContext ctx)
+    {
+        var series = ctx.getDataSeries();
+        if (series.size() == 0)
+            return;
+
+        var settings = getSettings();
+        var bullishPath = settings.getPath(SHOW_BULLISH);
+        var bearishPath = settings.getPath(SHOW_BEARISH);
+        var bullishMarker = settings.getMarker(BULLISH_MARKER);
+        var bearishMarker = settings.getMarker(BEARISH_MARKER);
+        boolean showBullish = bullishPath != null && bullishPath.isEnabled();
+        boolean showBearish = bearishPath != null && bearishPath.isEnabled();
+
+        // Fills of previously projected imbalances.
+        ArrayList<VolumeImbalance> newlyFilled = new ArrayList<>();
+        for (VolumeImbalance volumeImbalance : _unfilled)
+        {
+            long fillTime = _eventIndex.getFillTime(volumeImbalance.getEventIdx());
+            if (fillTime == ImbalanceEventIndex.NOT_FILLED)
+                continue;
+            int fillIdx = series.findIndex(fillTime);
+            volumeImbalance.setFilled(series.getStartTime(fillIdx), fillIdx);
+            _filled.add(volumeImbalance);
+            newlyFilled.add(volumeImbalance);
+            queueSignal(Signals.IMBALANCE_FILLED, fillIdx, fillTime, volumeImbalance.getDirection() == Direction.Bullish ? volumeImbalance.getHigh() : volumeImbalance.getLow());
+        }
+        _unfilled.removeAll(newlyFilled);
+
+        // New imbalances.
+        int size = _eventIndex.size();
+        for (int eventIdx = _projectedCount; eventIdx < size; eventIdx++)
+        {
+            long startTime = _eventIndex.getStartTime(eventIdx);
+            if (startTime < series.getStartTime(0))
+                continue;
+            boolean bullish = _eventIndex.isBullish(eventIdx);
+            if ((bullish && !showBullish) || (!bullish && !showBearish))
+                continue;
+
+            int startIdx = series.findIndex(startTime);
+            long fillTime = _eventIndex.getFillTime(eventIdx);
+            int fillIdx = fillTime != ImbalanceEventIndex.NOT_FILLED ? series.findIndex(fillTime) : -1;
+            // Imbalances opened and filled within one chart bar are not visible at this bar size.
+            if (fillIdx == startIdx)
+                continue;
+
+            long barStartTime = series.getStartTime(startIdx);
+            var volumeImbalance = new VolumeImbalance(barStartTime,
+                    startIdx,
+                    bullish ? Direction.Bullish : Direction.Bearish,
+                    _eventIndex.getHighTicks(eventIdx),
+                    _eventIndex.getLowTicks(eventIdx));
+            volumeImbalance.setEventIdx(eventIdx);
+            if (bullish && bullishMarker != null && bullishMarker.isEnabled())
+                volumeImbalance.setMarker(new Marker(new Coordinate(barStartTime, series.getLow(startIdx)), Enums.Position.BOTTOM, bullishMarker, "Bullish Volume Imbalance"));
+            else if (!bullish && bearishMarker != null && bearishMarker.isEnabled())
+                volumeImbalance.setMarker(new Marker(new Coordinate(barStartTime, series.getHigh(startIdx)), Enums.Position.TOP, bearishMarker, "Bearish Volume Imbalance"));
+            volumeImbalance.setActive(true);
+
+            if (fillIdx >= 0)
+            {
+                volumeImbalance.setFilled(series.getStartTime(fillIdx), fillIdx);
+                _filled.add(volumeImbalance);
+            }
+            else
+                _unfilled.add(volumeImbalance);
+            queueSignal(bullish ? Signals.NEW_BULLISH_IMBALANCE : Signals.NEW_BEARISH_IMBALANCE, startIdx, startTime, bullish ? volumeImbalance.getHigh() : volumeImbalance.getLow());
+        }
+        _projectedCount = size;
+    }
+
+    /**
+     * Zone mode: feeds completed bars into the merged zone sets. Each bar first removes the prices it traded
+     * from the open zones, then adds its own imbalance (if any), so an imbalance is never filled by the bar that created it.
+     */
+    private void updateZones(DataContext ctx)
+    {
+        var series = ctx.getDataSeries();
+        var settings = getSettings();
+        var bullishPath = settings.getPath(SHOW_BULLISH);
+        var bearishPath = settings.getPath(SHOW_BEARISH);
+        boolean showBullish = bullishPath != null && bullishPath.isEnabled();
+        boolean showBearish = bearishPath != null && bearishPath.isEnabled();
+
+        for (int currIdx = _zoneBarIdx + 1; currIdx < series.size(); currIdx++)
+        {
+            if (!series.isBarComplete(currIdx))
+                break;
+            _zoneBarIdx = currIdx;
+
+            long time = series.getStartTime(currIdx);
+            long low = _prices.toTicks(series.getLow(currIdx));
+            long high = _prices.toTicks(series.getHigh(currIdx));
+            int filled = _zones.remove(low, high, time);
+            if (filled > 0)
+                queueSignal(Signals.IMBALANCE_FILLED, currIdx, time, series.getClose(currIdx));
+
+            int prevIdx = currIdx - 1;
+            long prevClose = _prices.toTicks(series.getClose(prevIdx));
+            long currOpen = _prices.toTicks(series.getOpen(currIdx));
+            if (Math.abs(currOpen - prevClose) < MIN_TICKS)
+                continue;
+            if (showBullish && isBullish(series, prevIdx) && isBullish(series, currIdx) && currOpen > prevClose)
+            {
+                _zones.insert(true, prevClose, currOpen, time);
+                queueSignal(Signals.NEW_BULLISH_IMBALANCE, currIdx, time, _prices.toPrice(currOpen));
+            }
+            else if (showBearish && isBearish(series, prevIdx) && isBearish(series, currIdx) && currOpen < prevClose)
+            {
+                _zones.insert(false, currOpen, prevClose, time);
+                queueSignal(Signals.NEW_BEARISH_IMBALANCE, currIdx, time, _prices.toPrice(currOpen));
+            }
+        }
+    }
+
+    /**
+     * Opens, keeps or closes the export to match the settings, reporting why the previous one stopped if it failed.
+     */
+    private void updateExport(DataContext ctx)
+    {
+        if (_export != null && _export.getError() != null)
+            error("Volume Imbalances export failed: " + _export.getError());
+        var settings = getSettings();
+        var dir = settings.getBoolean(EXPORT, false) ? settings.getString(EXPORT_DIRECTORY, ColumnarExporter.DEFAULT_DIRECTORY) : null;
+        _export = ColumnarExporter.reopen(_export, dir, ctx.getInstrument().getSymbol(), "VolumeImbalances", "price");
+    }
+
+    /**
+     * Collects a signal for delivery at the end of the bar update.
+     * Historical events are not signalled but are exported, with the signal as the row type.
+     */
+    private void queueSignal(Signals signal, int barIdx, long time, double price)
+    {
+        if (_export != null)
+            _exportBacklog.offer(_export, signal.ordinal(), time, price, 0, 0);
+        if (_signalling)
+            _pendingSignals.add(new PendingSignal(signal, barIdx, price));
+    }
+
+    /**
+     * Fills on the same bar are coalesced into a single signal.
+     */
+    private void deliverSignals(DataContext ctx)
+    {
+        int fillBarIdx = -1;
+        int fillCount = 0;
+        double fillPrice = 0;
+        for (var pending : _pendingSignals)
+        {
+            if (pending.signal == Signals.IMBALANCE_FILLED)
+            {
+                if (fillCount > 0 && fillBarIdx != pending.barIdx)
+                    signalFilled(ctx, fillBarIdx, fillCount, fillPrice);
+                if (fillBarIdx != pending.barIdx)
+                    fillCount = 0;
+                fillBarIdx = pending.barIdx;
+                fillCount++;
+                fillPrice = pending.price;
+            }
+            else if (pending.signal == Signals.NEW_BULLISH_IMBALANCE)
+                ctx.signal(pending.barIdx, pending.signal, "New Bullish Volume Imbalance " + format(pending.price), pending.price);
+            else
+                ctx.signal(pending.barIdx, pending.signal, "New Bearish Volume Imbalance " + format(pending.price), pending.price);
+        }
+        if (fillCount > 0)
+            signalFilled(ctx, fillBarIdx, fillCount, fillPrice);
+        _pendingSignals.clear();
+    }
+
+    static class PendingSignal
+    {
+        final Signals signal;
+        final int barIdx;
+        final double price;
+
+        PendingSignal(Signals signal, int barIdx, double price)
+        {
+            this.signal = signal;
+            this.barIdx = barIdx;
+            this.price = price;
+        }
+    }
+
+    private void signalFilled(DataContext ctx, int barIdx, int count, double price)
+    {
+        String msg = count == 1 ? "Volume Imbalance Filled " + format(price) : count + " Volume Imbalances Filled";
+        ctx.signal(barIdx, Signals.IMBALANCE_FILLED, msg, price);
+    }
+
     private boolean isBullish(DataSeries series, int idx)
     {
         return series.getClose(idx) >= series.getOpen(idx);
@@ -272,27 +963,159 @@ public class VolumeImbalances extends Study
         return !isBullish(series, idx);
     }
 
+    /**
+     * Trades the bar's range into the open gaps it overlaps, found through the price-ordered indexes.
+     * A gap is filled once price reaches its far edge, otherwise its unfilled part shrinks to what price has not reached.
+     */
     private void detectFilledVolumeImbalances(DataContext ctx, int currIdx, boolean checkHigh, boolean checkLow)
     {
         var series = ctx.getDataSeries();
-        ArrayList<VolumeImbalance> newlyFilled = new ArrayList<>();
-        for (VolumeImbalance volumeImbalance : _unfilled)
+        long high = _prices.toTicks(series.getHigh(currIdx));
+        long low = _prices.toTicks(series.getLow(currIdx));
+        var traded = new ArrayList<VolumeImbalance>();
+        if (checkLow)
         {
-            if (currIdx <= volumeImbalance.getStartBarIdx() || volumeImbalance.isFilled() || !volumeImbalance.isActive())
-                continue;
+            for (var it = _bullishByHigh.descendingIterator(); it.hasNext(); )
+            {
+                var volumeImbalance = it.next();
+                if (volumeImbalance.getHighTicks() <= low)
+                    break;
+                if (currIdx > volumeImbalance.getStartBarIdx())
+                    traded.add(volumeImbalance);
+            }
+        }
+        if (checkHigh)
+        {
+            for (var volumeImbalance : _bearishByLow)
+            {
+                if (volumeImbalance.getLowTicks() >= high)
+                    break;
+                if (currIdx > volumeImbalance.getStartBarIdx())
+                    traded.add(volumeImbalance);
+            }
+        }
 
-            if ((checkHigh && (series.getHigh(currIdx) >= volumeImbalance.getLow() && series.getLow(currIdx) < volumeImbalance.getLow())) ||
-                    (checkLow && (series.getLow(currIdx) <= volumeImbalance.getHigh() && series.getHigh(currIdx) > volumeImbalance.getHigh())))
+        for (var volumeImbalance : traded)
+        {
+            unindex(volumeImbalance);
+            boolean bullish = volumeImbalance.getDirection() == Direction.Bullish;
+            if ((bullish && low <= volumeImbalance.getLowTicks()) || (!bullish && high >= volumeImbalance.getHighTicks()))
             {
                 // Volume imbalance filled.
                 volumeImbalance.setFilled(series.getStartTime(currIdx), currIdx);
+                _unfilled.remove(volumeImbalance);
                 _filled.add(volumeImbalance);
-                newlyFilled.add(volumeImbalance);
-                // TODO: Signal volume imbalance filled at currIdx
+                _fillStats.onFill(statsDirection(volumeImbalance), volumeImbalance.getGapTicks(), (int)(currIdx - volumeImbalance.getStartBarIdx()));
+                queueSignal(Signals.IMBALANCE_FILLED, currIdx, series.getStartTime(currIdx), bullish ? volumeImbalance.getHigh() : volumeImbalance.getLow());
                 debug("VolumeImbalance filled at " + Util.formatYYYYMMMDDHHSSMMM(series.getStartTime(currIdx), ctx.getTimeZone()));
             }
+            else
+            {
+                // Partially filled.
+                if (bullish)
+                    volumeImbalance.setUnfilled(volumeImbalance.getLowTicks(), low);
+                else
+                    volumeImbalance.setUnfilled(high, volumeImbalance.getHighTicks());
+                index(volumeImbalance);
+            }
+        }
+    }
+
+    private void index(VolumeImbalance volumeImbalance)
+    {
+        if (volumeImbalance.getDirection() == Direction.Bullish)
+            _bullishByHigh.add(volumeImbalance);
+        else
+            _bearishByLow.add(volumeImbalance);
+    }
+
+    private void unindex(VolumeImbalance volumeImbalance)
+    {
+        if (volumeImbalance.getDirection() == Direction.Bullish)
+            _bullishByHigh.remove(volumeImbalance);
+        else
+            _bearishByLow.remove(volumeImbalance);
+    }
+
+    /**
+     * Open bullish gaps are always below price and bearish gaps above it, so the nearest of each is the end of its index.
+     */
+    private void exportNearestGaps(DataSeries series, int currIdx)
+    {
+        series.setDouble(currIdx, Values.NEAREST_GAP_ABOVE, _bearishByLow.isEmpty() ? null : _bearishByLow.first().getLow());
+        series.setDouble(currIdx, Values.NEAREST_GAP_BELOW, _bullishByHigh.isEmpty() ? null : _bullishByHigh.last().getHigh());
+        if (currIdx > 0 && _memory.isAtLeast(MemoryBudget.Step.DROP_SCRATCH))
+            clearNearestGaps(series, currIdx - 1);
+    }
+
+    private void clearNearestGaps(DataSeries series, int idx)
+    {
+        series.setDouble(idx, Values.NEAREST_GAP_ABOVE, null);
+        series.setDouble(idx, Values.NEAREST_GAP_BELOW, null);
+    }
+
+    /**
+     * Estimates what this instance holds. The event index is shared between instances, so it is not counted here.
+     */
+    private void accountMemory(DataSeries series)
+    {
+        int imbalances = _unfilled.size() + _filled.size();
+        int zones = _zones.size();
+        _memory.setFigures(imbalances + _markerCount + zones,
+                imbalances * IMBALANCE_BYTES + _markerCount * MemoryBudget.MARKER_BYTES + zones * ZONE_BYTES);
+        long gapValues = _memory.isAtLeast(MemoryBudget.Step.DROP_SCRATCH) ? 2 : 2L * series.size();
+        _memory.setValues(gapValues + 2L * imbalances);
+        _memory.setCacheBytes((_bullishByHigh.size() + _bearishByLow.size()) * INDEX_ENTRY_BYTES);
+    }
+
+    /**
+     * Degrades until the estimate fits the budget: filled imbalances and closed zones are evicted oldest first,
+     * then the nearest gap values are only kept on the latest bar, and finally markers are removed.
+     * Runs after a recalculation and once per new bar.
+     */
+    private void enforceMemoryBudget(DataSeries series)
+    {
+        _memoryBarCount = series.size();
+        accountMemory(series);
+        if (!_memory.isOverBudget())
+            return;
+        if (!_memory.isAtLeast(MemoryBudget.Step.EVICT_HISTORY))
+            _memory.degrade();
+        evictHistory(series);
+        while (_memory.isOverBudget() && _memory.degrade())
+        {
+            if (_memory.getStep() == MemoryBudget.Step.DROP_SCRATCH)
+            {
+                for (int i = 0; i < series.size() - 1; i++)
+                    clearNearestGaps(series, i);
+            }
+            else if (_memory.getStep() == MemoryBudget.Step.SKIP_MARKERS)
+            {
+                for (var volumeImbalance : _unfilled)
+                    volumeImbalance.setMarker(null);
+                for (var volumeImbalance : _filled)
+                    volumeImbalance.setMarker(null);
+            }
+            accountMemory(series);
         }
-        _unfilled.removeAll(newlyFilled);
+    }
+
+    private void evictHistory(DataSeries series)
+    {
+        long excess = _memory.getUsedBytes() - _memory.getBudget();
+        int evicted = 0;
+        while (excess > 0 && evicted < _filled.size())
+        {
+            var volumeImbalance = _filled.get(evicted++);
+            excess -= IMBALANCE_BYTES + 2 * MemoryBudget.VALUE_BYTES + (volumeImbalance.getMarker() != null ? MemoryBudget.MARKER_BYTES : 0);
+            volumeImbalance.setMarker(null);
+            volumeImbalance.setActive(false);
+        }
+        _filled.subList(0, evicted).clear();
+        if (excess > 0)
+            evicted += _zones.evictClosed((int)Math.min(Integer.MAX_VALUE, (excess + ZONE_BYTES - 1) / ZONE_BYTES));
+        _memory.addEvicted(evicted);
+        accountMemory(series);
     }
 
     private void detectUnfilledVolumeImbalances(DataContext ctx, int currIdx)
@@ -304,10 +1127,9 @@ public class VolumeImbalances extends Study
         var bullishMarker = settings.getMarker(BULLISH_MARKER);
         var bearishMarker = settings.getMarker(BEARISH_MARKER);
         int prevIdx = currIdx - 1;
-        var prevClose = series.getClose(prevIdx);
-        var currOpen = series.getOpen(currIdx);
-        var imbalanceTicks = (currOpen - prevClose) / series.getInstrument().getTickSize();
-        var absImbalanceTicks = Math.abs(imbalanceTicks);
+        long prevClose = _prices.toTicks(series.getClose(prevIdx));
+        long currOpen = _prices.toTicks(series.getOpen(currIdx));
+        long absImbalanceTicks = Math.abs(currOpen - prevClose);
         VolumeImbalance volumeImbalance = null;
         boolean active = false;
 
@@ -319,7 +1141,7 @@ public class VolumeImbalances extends Study
                 bullishPath.isEnabled() &&
                 isBullish(series, prevIdx) &&
                 isBullish(series, currIdx) &&
-                (series.getOpen(currIdx) > series.getClose(prevIdx)) &&
+                currOpen > prevClose &&
                 absImbalanceTicks >= MIN_TICKS)
         {
             // Bullish imbalance
@@ -336,7 +1158,7 @@ public class VolumeImbalances extends Study
                     volumeImbalance.setMarker(new Marker(new Coordinate(series.getStartTime(currIdx), series.getLow(currIdx)), Enums.Position.BOTTOM, bullishMarker, "Bullish Volume Imbalance"));
                 }
                 _unfilled.add(volumeImbalance);
-                // TODO: Signal new volume imbalance at currIdx
+                queueSignal(Signals.NEW_BULLISH_IMBALANCE, currIdx, series.getStartTime(currIdx), volumeImbalance.getHigh());
                 debug("New bullish VolumeImbalance detected at " + Util.formatYYYYMMMDDHHSSMMM(series.getStartTime(currIdx), ctx.getTimeZone()));
             }
         }
@@ -344,7 +1166,7 @@ public class VolumeImbalances extends Study
                 bearishPath.isEnabled() &&
                 isBearish(series, prevIdx) &&
                 isBearish(series, currIdx) &&
-                (series.getOpen(currIdx) < series.getClose(prevIdx)) &&
+                currOpen < prevClose &&
                 absImbalanceTicks >= MIN_TICKS)
         {
             // Bearish imbalance
@@ -361,12 +1183,42 @@ public class VolumeImbalances extends Study
                     volumeImbalance.setMarker(new Marker(new Coordinate(series.getStartTime(currIdx), series.getHigh(currIdx)), Enums.Position.TOP, bearishMarker, "Bearish Volume Imbalance"));
                 }
                 _unfilled.add(volumeImbalance);
-                // TODO: Signal new volume imbalance at currIdx
+                queueSignal(Signals.NEW_BEARISH_IMBALANCE, currIdx, series.getStartTime(currIdx), volumeImbalance.getLow());
                 debug("New bearish VolumeImbalance detected at " + Util.formatYYYYMMMDDHHSSMMM(series.getStartTime(currIdx), ctx.getTimeZone()));
             }
         }
 
         if (volumeImbalance != null)
+        {
+            if (volumeImbalance.isActive() != active)
+            {
+                int direction = statsDirection(volumeImbalance);
+                int ticks = volumeImbalance.getGapTicks();
+                if (active)
+                {
+                    // Export how often gaps like this one have filled so far (no look-ahead).
+                    series.setDouble(currIdx, Values.FILL_RATE, _fillStats.getFillRate(direction, ticks));
+                    var median = _fillStats.getMedianBarsToFill(direction, ticks);
+                    series.setDouble(currIdx, Values.MEDIAN_BARS_TO_FILL, median != null ? median.doubleValue() : null);
+                    _fillStats.onOpen(direction, ticks);
+                }
+                else
+                {
+                    series.setDouble(currIdx, Values.FILL_RATE, null);
+                    series.setDouble(currIdx, Values.MEDIAN_BARS_TO_FILL, null);
+                    _fillStats.onCancel(direction, ticks);
+                }
+            }
+            if (active && !volumeImbalance.isActive())
+                index(volumeImbalance);
+            else if (!active && volumeImbalance.isActive())
+                unindex(volumeImbalance);
             volumeImbalance.setActive(active);
+        }
+    }
+
+    private int statsDirection(VolumeImbalance volumeImbalance)
+    {
+        return volumeImbalance.getDirection() == Direction.Bullish ? ImbalanceFillStats.BULLISH : ImbalanceFillStats.BEARISH;
     }
 }
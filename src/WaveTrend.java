@@ -1,10 +1,16 @@
 import com.motivewave.platform.sdk.common.*;
 import com.motivewave.platform.sdk.common.desc.*;
+import com.motivewave.platform.sdk.draw.Figure;
 import com.motivewave.platform.sdk.draw.Marker;
 import com.motivewave.platform.sdk.study.Study;
 import com.motivewave.platform.sdk.study.StudyHeader;
 
 import java.awt.*;
+import java.time.Instant;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumSet;
 
 @StudyHeader(
         namespace="gambcl.motivewave",
@@ -17,6 +23,100 @@ import java.awt.*;
 public class WaveTrend extends Study
 {
     enum Values {FAST_WAVE, SLOW_WAVE, WAVE_DELTA, ESA, TMP, CI}
+    enum Signals {BULLISH_DIVERGENCE, BEARISH_DIVERGENCE}
+
+    /**
+     * All detected divergences, drawn as lines between the two fast wave pivots.
+     */
+    class DivergenceLines extends Figure
+    {
+        final private static int HIT_RADIUS = 4;
+        final private ArrayList<long[]> _times = new ArrayList<>();
+        final private ArrayList<double[]> _waves = new ArrayList<>();
+        final private ArrayList<Boolean> _bullish = new ArrayList<>();
+        private int _hover = -1;
+
+        synchronized void clear()
+        {
+            _times.clear();
+            _waves.clear();
+            _bullish.clear();
+        }
+
+        synchronized void add(boolean bullish, long startTime, double startWave, long endTime, double endWave)
+        {
+            _times.add(new long[] {startTime, endTime});
+            _waves.add(new double[] {startWave, endWave});
+            _bullish.add(bullish);
+        }
+
+        synchronized int size()
+        {
+            return _times.size();
+        }
+
+        /**
+         * Removes divergences starting before time. They are added in time order, so these are at the front.
+         */
+        synchronized void evictBefore(long time)
+        {
+            int n = 0;
+            while (n < _times.size() && _times.get(n)[0] < time)
+                n++;
+            _times.subList(0, n).clear();
+            _waves.subList(0, n).clear();
+            _bullish.subList(0, n).clear();
+            _hover = -1;
+        }
+
+        @Override
+        public synchronized boolean contains(double x, double y, DrawContext ctx)
+        {
+            _hover = -1;
+            for (int i = _times.size() - 1; i >= 0; i--)
+            {
+                var end = ctx.translate(_times.get(i)[1], _waves.get(i)[1]);
+                if (Math.abs(end.getX() - x) <= HIT_RADIUS && Math.abs(end.getY() - y) <= HIT_RADIUS)
+                {
+                    _hover = i;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public synchronized String getPopupMessage(double x, double y, DrawContext ctx)
+        {
+            if (_hover < 0 || _hover >= _times.size())
+                return null;
+            return _bullish.get(_hover) ? "Bullish Divergence\nLower low in price, higher low in fast wave"
+                    : "Bearish Divergence\nHigher high in price, lower high in fast wave";
+        }
+
+        @Override
+        public synchronized void draw(Graphics2D gc, DrawContext ctx)
+        {
+            var settings = getSettings();
+            var bullishMarker = settings.getMarker(BULLISH_DIVERGENCE_MARKER);
+            var bearishMarker = settings.getMarker(BEARISH_DIVERGENCE_MARKER);
+            var bounds = ctx.getBounds();
+            for (int i = 0; i < _times.size(); i++)
+            {
+                var marker = _bullish.get(i) ? bullishMarker : bearishMarker;
+                if (marker == null || !marker.isEnabled())
+                    continue;
+                var start = ctx.translate(_times.get(i)[0], _waves.get(i)[0]);
+                var end = ctx.translate(_times.get(i)[1], _waves.get(i)[1]);
+                if (end.getX() < bounds.getMinX() || start.getX() > bounds.getMaxX())
+                    continue;
+
+                gc.setColor(marker.getFillColor());
+                gc.drawLine((int)start.getX(), (int)start.getY(), (int)end.getX(), (int)end.getY());
+                gc.fillOval((int)end.getX() - HIT_RADIUS, (int)end.getY() - HIT_RADIUS, 2 * HIT_RADIUS, 2 * HIT_RADIUS);
+            }
+        }
+    }
 
     final static String FAST_WAVE_PATH = "fastWavePath";
     final static String SLOW_WAVE_PATH = "slowWavePath";
@@ -36,9 +136,62 @@ public class WaveTrend extends Study
     final static String OVERBOUGHT_GUIDE = "overboughtGuide";
     final static String OVERSOLD_GUIDE = "oversoldGuide";
 
+    final static String BULLISH_DIVERGENCE_MARKER = "bullishDivergenceMarker";
+    final static String BEARISH_DIVERGENCE_MARKER = "bearishDivergenceMarker";
+    final static String PIVOT_LOOKBACK = "pivotLookback";
+    final static String MAX_PIVOT_DISTANCE = "maxPivotDistance";
+    final static String BATCH_CALCULATION = "batchCalculation";
+    final static String HIGHER_TIMEFRAME = "higherTimeframe";
+    final static String HIGHER_TIMEFRAME_BAR_SIZE = "higherTimeframeBarSize";
+    final static String MEMORY_BUDGET = "memoryBudget";
+    final static String SHOW_MEMORY_USAGE = "showMemoryUsage";
+    final static String EXPORT = "export";
+    final static String EXPORT_DIRECTORY = "exportDirectory";
+
     final static int CHLEN = 9;
     final static int AVG = 12;
     final static int MALEN = 3;
+    // Bars before the first value is written.
+    final static int WARMUP_BARS = CHLEN + CHLEN + AVG + MALEN;
+    // History is never evicted below this many bars.
+    final static int MIN_HISTORY_BARS = 500;
+    final static long DIVERGENCE_BYTES = 160;
+
+    // Divergence state, advanced once per completed bar.
+    private final DivergenceLines _divergences = new DivergenceLines();
+    private MonotonicDeque _waveHighs;
+    private MonotonicDeque _waveLows;
+    private MonotonicDeque _priceHighs;
+    private MonotonicDeque _priceLows;
+    private int _pivotLookback;
+    private int _firstPivotBar = -1;
+    private int _lastPivotBar = -1;
+    private int _prevHighIdx = -1;
+    private double _prevHighWave;
+    private double _prevHighPrice;
+    private int _prevLowIdx = -1;
+    private double _prevLowWave;
+    private double _prevLowPrice;
+    private boolean _historical = false;
+
+    // Streaming state, built from the chart bars as they close. Each bucket is a higher timeframe bar,
+    // or a single chart bar when the scratch columns are dropped.
+    private final BarAggregator _streamBars = new BarAggregator();
+    private WaveTrendMath.State _streamWaves = new WaveTrendMath.State(CHLEN, AVG, MALEN);
+    private BarSize _htfBarSize;
+    private boolean _streaming;
+    private int _streamLastBar = -1;
+
+    // Memory budget, planned from the number of bars and then updated as bars are added.
+    private final MemoryBudget _memory = new MemoryBudget(EnumSet.allOf(MemoryBudget.Step.class));
+    private final MemoryDiagnostics _diagnostics = new MemoryDiagnostics("Wave Trend", _memory);
+    private final ArrayDeque<Marker> _markers = new ArrayDeque<>();
+    private int _firstBar = 0;
+    private int _lastCountedBar = -1;
+
+    // Closed bars' waves are exported once each, see ColumnarExporter.
+    private ColumnarExporter.Stream _export;
+    private int _exportLastBar = -1;
 
     @Override
     public void initialize(Defaults defaults)
@@ -87,6 +240,29 @@ public class WaveTrend extends Study
         //guideOversold.setLineColor(defaults.getLineColor());
         grpGuides.addRow(guideOversold);
 
+        var grpDivergences = tabGeneral.addGroup("Divergences");
+        grpDivergences.addRow(new MarkerDescriptor(BULLISH_DIVERGENCE_MARKER, "Bullish Divergence", Enums.MarkerType.CIRCLE, Enums.Size.SMALL, defaults.getGreen(), defaults.getGreen(), true, true));
+        grpDivergences.addRow(new MarkerDescriptor(BEARISH_DIVERGENCE_MARKER, "Bearish Divergence", Enums.MarkerType.CIRCLE, Enums.Size.SMALL, defaults.getRed(), defaults.getRed(), true, true));
+        grpDivergences.addRow(new IntegerDescriptor(PIVOT_LOOKBACK, "Pivot Lookback", 2, 1, 20, 1));
+        grpDivergences.addRow(new IntegerDescriptor(MAX_PIVOT_DISTANCE, "Max Bars Between Pivots", 60, 5, 500, 1));
+
+        var grpCalculation = tabGeneral.addGroup("Calculation");
+        grpCalculation.addRow(new BooleanDescriptor(BATCH_CALCULATION, "Batch Recompute History", false));
+
+        var grpHigherTimeframe = tabGeneral.addGroup("Higher Timeframe");
+        grpHigherTimeframe.addRow(new BooleanDescriptor(HIGHER_TIMEFRAME, "Use Higher Timeframe", false));
+        grpHigherTimeframe.addRow(new BarSizeDescriptor(HIGHER_TIMEFRAME_BAR_SIZE, "Bar Size", BarSize.getBarSize(Enums.BarSizeType.LINEAR, Enums.IntervalType.HOUR, 1)));
+        sd.addDependency(new InputDependency(HIGHER_TIMEFRAME, HIGHER_TIMEFRAME_BAR_SIZE));
+
+        var grpMemory = tabGeneral.addGroup("Memory");
+        grpMemory.addRow(new IntegerDescriptor(MEMORY_BUDGET, "Memory Budget (MB, 0 = None)", 64, 0, 4096, 1));
+        grpMemory.addRow(new BooleanDescriptor(SHOW_MEMORY_USAGE, "Show Memory Usage", false));
+
+        var grpExport = tabGeneral.addGroup("Export");
+        grpExport.addRow(new BooleanDescriptor(EXPORT, "Export To Files", false));
+        grpExport.addRow(new StringDescriptor(EXPORT_DIRECTORY, "Directory", ColumnarExporter.DEFAULT_DIRECTORY));
+        sd.addDependency(new InputDependency(EXPORT, EXPORT_DIRECTORY));
+
         var rd = createRD();
         rd.setLabelPrefix("Wave Trend");
         rd.addHorizontalLine(new LineInfo(0, defaults.getLineColor(), 1, null, true));
@@ -101,6 +277,44 @@ public class WaveTrend extends Study
         rd.declareIndicator(Values.FAST_WAVE, FAST_WAVE_INDICATOR);
         rd.declareIndicator(Values.SLOW_WAVE, SLOW_WAVE_INDICATOR);
         rd.declareIndicator(Values.WAVE_DELTA, WAVE_DELTA_INDICATOR);
+        rd.declareSignal(Signals.BULLISH_DIVERGENCE, "Bullish Divergence");
+        rd.declareSignal(Signals.BEARISH_DIVERGENCE, "Bearish Divergence");
+    }
+
+    @Override
+    protected void calculateValues(DataContext ctx)
+    {
+        resetDivergences();
+        resetHigherTimeframe(ctx);
+        planMemory(ctx);
+        updateExport(ctx);
+        _historical = true;
+        try
+        {
+            if (!_streaming && _firstBar == 0 && getSettings().getBoolean(BATCH_CALCULATION, false))
+                calculateBatch(ctx);
+            else
+                super.calculateValues(ctx);
+        }
+        finally
+        {
+            _historical = false;
+        }
+        removeFigure(_divergences);
+        addFigure(_divergences);
+        removeFigure(_diagnostics);
+        if (getSettings().getBoolean(SHOW_MEMORY_USAGE, false))
+            addFigure(_diagnostics);
+        enforceMemoryBudget(ctx.getDataSeries());
+        exportBars(ctx.getDataSeries());
+    }
+
+    @Override
+    public void destroy()
+    {
+        if (_export != null)
+            _export.close();
+        super.destroy();
     }
 
     @Override
@@ -116,7 +330,22 @@ public class WaveTrend extends Study
         _wt2 = ta.sma(_wt1, _malen)
         [_wt1, _wt2]
          */
-        if (i < (CHLEN + CHLEN + AVG + MALEN))
+        if (i < _firstBar)
+            return;
+        if (i > _lastCountedBar)
+        {
+            _lastCountedBar = i;
+            _memory.addValues(valuesPerBar());
+            enforceMemoryBudget(ctx.getDataSeries());
+        }
+        if (!_historical)
+            exportBars(ctx.getDataSeries());
+        if (_streaming)
+        {
+            calculateStreaming(i, ctx);
+            return;
+        }
+        if (i < _firstBar + WARMUP_BARS)
             return;
 
         var series = ctx.getDataSeries();
@@ -141,19 +370,424 @@ public class WaveTrend extends Study
         series.setDouble(i, Values.SLOW_WAVE, wt2);
         series.setDouble(i, Values.WAVE_DELTA, wt1 - wt2);
 
+        addCrossoverMarker(i, series);
+
+        series.setComplete(i);
+
+        updateDivergences(i, ctx);
+    }
+
+    private void addCrossoverMarker(int i, DataSeries series)
+    {
+        if (_memory.isAtLeast(MemoryBudget.Step.SKIP_MARKERS))
+            return;
         var settings = getSettings();
         var bullishMarker = settings.getMarker(BULLISH_CROSSOVER_MARKER);
         var bearishMarker = settings.getMarker(BEARISH_CROSSOVER_MARKER);
         var coord = new Coordinate(series.getStartTime(i), series.getDouble(i, Values.SLOW_WAVE));
         if (bullishMarker != null && bullishMarker.isEnabled() && crossedAbove(series, i, Values.FAST_WAVE, Values.SLOW_WAVE))
         {
-            addFigure(new Marker(coord, Enums.Position.CENTER, bullishMarker, "Bullish Crossover"));
+            addMarker(new Marker(coord, Enums.Position.CENTER, bullishMarker, "Bullish Crossover"));
         }
         else if (bearishMarker != null && bearishMarker.isEnabled() && crossedBelow(series, i, Values.FAST_WAVE, Values.SLOW_WAVE))
         {
-            addFigure(new Marker(coord, Enums.Position.CENTER, bearishMarker, "Bearish Crossover"));
+            addMarker(new Marker(coord, Enums.Position.CENTER, bearishMarker, "Bearish Crossover"));
         }
+    }
 
-        series.setComplete(i);
+    private void addMarker(Marker marker)
+    {
+        _markers.add(marker);
+        addFigure(marker);
+    }
+
+    /**
+     * Opens, keeps or closes the export to match the settings, reporting why the previous one stopped if it failed.
+     * The whole history is offered again after a recalculation, and the exporter skips the bars already written.
+     */
+    private void updateExport(DataContext ctx)
+    {
+        if (_export != null && _export.getError() != null)
+            error("Wave Trend export failed: " + _export.getError());
+        var settings = getSettings();
+        var dir = settings.getBoolean(EXPORT, false) ? settings.getString(EXPORT_DIRECTORY, ColumnarExporter.DEFAULT_DIRECTORY) : null;
+        _export = ColumnarExporter.reopen(_export, dir, ctx.getInstrument().getSymbol(), "WaveTrend", "fastWave", "slowWave", "waveDelta");
+        // Each bar is exported once, so a row at the last time written is always a repeat.
+        if (_export != null)
+            _export.setReplay(true);
+        _exportLastBar = -1;
+    }
+
+    /**
+     * Offers the closed bars not yet exported, as many as the export has room for. The rest are picked up by the
+     * next update, so a long history is written over several drains instead of being dropped.
+     */
+    private void exportBars(DataSeries series)
+    {
+        if (_export == null)
+            return;
+        int room = _export.remaining();
+        int i = Math.max(_exportLastBar + 1, _firstBar);
+        for (; i < series.size() - 1 && room > 0; i++)
+        {
+            Double wt1 = series.getDouble(i, Values.FAST_WAVE);
+            Double wt2 = series.getDouble(i, Values.SLOW_WAVE);
+            Double delta = series.getDouble(i, Values.WAVE_DELTA);
+            if (wt1 == null || wt2 == null || delta == null)
+                continue;
+            _export.offer(0, series.getStartTime(i), wt1, wt2, delta);
+            room--;
+        }
+        _exportLastBar = i - 1;
+    }
+
+    private int valuesPerBar()
+    {
+        return _memory.isAtLeast(MemoryBudget.Step.DROP_SCRATCH) ? 3 : Values.values().length;
+    }
+
+    /**
+     * Plans the calculation to fit the memory budget before anything is written, from the number of bars and the
+     * figures kept by the previous calculation. Old bars are left out first, then the ESA, TMP and CI columns are
+     * no longer kept (the waves are streamed bar by bar instead), and finally markers and divergences are skipped.
+     */
+    private void planMemory(DataContext ctx)
+    {
+        var settings = getSettings();
+        long figureBytes = _markers.size() * MemoryBudget.MARKER_BYTES + _divergences.size() * DIVERGENCE_BYTES;
+        long figures = _markers.size() + _divergences.size();
+        _markers.clear();
+        _memory.reset(settings.getInteger(MEMORY_BUDGET, 64));
+        _memory.setFigures(figures, figureBytes);
+
+        int n = ctx.getDataSeries().size();
+        _firstBar = 0;
+        _lastCountedBar = n - 1;
+        _memory.setValues((long)n * valuesPerBar());
+        while (_memory.isOverBudget() && _memory.degrade())
+        {
+            if (_memory.getStep() == MemoryBudget.Step.DROP_SCRATCH)
+            {
+                _streaming = true;
+                _firstBar = 0;
+            }
+            if (_memory.isAtLeast(MemoryBudget.Step.EVICT_HISTORY))
+            {
+                int keep = historyBars(n);
+                _firstBar = n - keep;
+                _memory.setValues((long)keep * valuesPerBar());
+            }
+        }
+        _memory.addEvicted(_firstBar);
+        _streamLastBar = _firstBar - 1;
+    }
+
+    /**
+     * Number of the most recent bars whose values fit in the budget, never less than MIN_HISTORY_BARS.
+     */
+    private int historyBars(int n)
+    {
+        long bars = _memory.getBytesForValues() / (valuesPerBar() * MemoryBudget.VALUE_BYTES);
+        return (int)Math.min(n, Math.max(MIN_HISTORY_BARS, bars));
+    }
+
+    /**
+     * Brings a calculated series back within budget by evicting the oldest bars' values, markers and divergences.
+     * Dropping the scratch columns changes how the waves are calculated, so that step waits for the next recalculation.
+     */
+    private void enforceMemoryBudget(DataSeries series)
+    {
+        _memory.setFigures(_markers.size() + _divergences.size(),
+                _markers.size() * MemoryBudget.MARKER_BYTES + _divergences.size() * DIVERGENCE_BYTES);
+        if (!_memory.isOverBudget())
+            return;
+        if (!_memory.isAtLeast(MemoryBudget.Step.EVICT_HISTORY))
+            _memory.degrade();
+
+        int n = series.size();
+        int first = n - historyBars(n);
+        if (first <= _firstBar)
+            return;
+        for (int i = _firstBar; i < first; i++)
+        {
+            for (var value : Values.values())
+                series.setDouble(i, value, null);
+        }
+        _memory.addEvicted(first - _firstBar);
+        _memory.setValues((long)(n - first) * valuesPerBar());
+        _firstBar = first;
+
+        long time = series.getStartTime(first);
+        while (!_markers.isEmpty() && _markers.peek().getTime() < time)
+            removeFigure(_markers.poll());
+        _divergences.evictBefore(time);
+        _memory.setFigures(_markers.size() + _divergences.size(),
+                _markers.size() * MemoryBudget.MARKER_BYTES + _divergences.size() * DIVERGENCE_BYTES);
+    }
+
+    /**
+     * Uses the higher timeframe if it is enabled and both bar sizes are time based with the higher timeframe
+     * the larger of the two, otherwise the study runs on the chart bars as usual.
+     */
+    private void resetHigherTimeframe(DataContext ctx)
+    {
+        _streamBars.clear();
+        _streamLastBar = -1;
+        _htfBarSize = null;
+        _streaming = false;
+
+        var settings = getSettings();
+        var htf = settings.getBarSize(HIGHER_TIMEFRAME_BAR_SIZE);
+        var chart = ctx.getDataSeries().getBarSize();
+        if (settings.getBoolean(HIGHER_TIMEFRAME, false) && htf != null && chart != null && htf.isLinear() && chart.isLinear()
+                && htf.getSizeMillis() > chart.getSizeMillis())
+            _htfBarSize = htf;
+        _streaming = _htfBarSize != null;
+        // On chart bars the waves start where calculate() would start them.
+        _streamWaves = new WaveTrendMath.State(CHLEN, AVG, MALEN, _htfBarSize == null ? WARMUP_BARS : 0);
+    }
+
+    /**
+     * Projects the wave trend of the higher timeframe bar (or just the chart bar, see planMemory) containing chart
+     * bar i onto it. Closed chart bars are folded into the higher timeframe bar once, and the higher timeframe
+     * averages only advance when one of its bars closes, so each update is O(1). Until then each chart bar shows the waves as they stood when it closed,
+     * and the forming chart bar is evaluated against the bucket without being added to it.
+     */
+    private void calculateStreaming(int i, DataContext ctx)
+    {
+        var series = ctx.getDataSeries();
+        int last = series.size() - 1;
+        int closed = i < last ? i : i - 1;
+        for (int j = _streamLastBar + 1; j <= closed; j++)
+        {
+            startStreamBar(series.getStartTime(j), ctx);
+            _streamBars.add(series.getHigh(j), series.getLow(j), series.getClose(j));
+            _streamWaves.peek(_streamBars.getTypicalPrice());
+            _streamLastBar = j;
+            if (setStreamValues(j, series))
+            {
+                addCrossoverMarker(j, series);
+                series.setComplete(j);
+            }
+        }
+        updateDivergences(closed, ctx);
+
+        if (i == last)
+        {
+            startStreamBar(series.getStartTime(i), ctx);
+            _streamWaves.peek(_streamBars.getTypicalPrice(series.getHigh(i), series.getLow(i), series.getClose(i)));
+            setStreamValues(i, series);
+        }
+    }
+
+    /**
+     * Commits the current higher timeframe bar to the averages if a chart bar starting at time begins a new one.
+     */
+    private void startStreamBar(long time, DataContext ctx)
+    {
+        long bucket = getHigherTimeframeStart(time, ctx);
+        if (_streamBars.closes(bucket))
+            _streamWaves.push(_streamBars.getTypicalPrice());
+        _streamBars.start(bucket);
+    }
+
+    private boolean setStreamValues(int i, DataSeries series)
+    {
+        if (Double.isNaN(_streamWaves.wt2))
+            return false;
+        if (!_memory.isAtLeast(MemoryBudget.Step.DROP_SCRATCH))
+        {
+            series.setDouble(i, Values.ESA, _streamWaves.esa);
+            series.setDouble(i, Values.TMP, _streamWaves.tmp);
+            series.setDouble(i, Values.CI, _streamWaves.ci);
+        }
+        series.setDouble(i, Values.FAST_WAVE, _streamWaves.wt1);
+        series.setDouble(i, Values.SLOW_WAVE, _streamWaves.wt2);
+        series.setDouble(i, Values.WAVE_DELTA, _streamWaves.delta);
+        return true;
+    }
+
+    /**
+     * Start time of the higher timeframe bar containing time. Intraday bars are counted from the start of the
+     * trading day, days start with the trading day and weeks with the trading week.
+     */
+    private long getHigherTimeframeStart(long time, DataContext ctx)
+    {
+        if (_htfBarSize == null)
+            return time;
+        var instr = ctx.getInstrument();
+        boolean rth = ctx.isRTH();
+        if (_htfBarSize.isIntraday())
+        {
+            long sod = instr.getStartOfDay(time, rth);
+            long size = _htfBarSize.getSizeMillis();
+            return sod + Math.floorDiv(time - sod, size) * size;
+        }
+        switch (_htfBarSize.getIntervalType())
+        {
+            case DAY:
+                return instr.getStartOfDay(time, rth);
+            case WEEK:
+                return instr.getStartOfWeek(time, rth);
+            default:
+                // Months and years are calendar periods in the instrument's time zone.
+                var date = Instant.ofEpochMilli(time).atZone(instr.getTimeZone().toZoneId()).toLocalDate();
+                date = _htfBarSize.getIntervalType() == Enums.IntervalType.YEAR
+                        ? date.with(TemporalAdjusters.firstDayOfYear()) : date.with(TemporalAdjusters.firstDayOfMonth());
+                return date.atStartOfDay(instr.getTimeZone().toZoneId()).toInstant().toEpochMilli();
+        }
+    }
+
+    /**
+     * Recomputes the whole series at once on primitive arrays (see WaveTrendMath) rather than bar by bar.
+     * Live updates still go through calculate(), which continues from the values written here. Each column is written
+     * from the same bar calculate() would start it at, so the series averages carry on over the same inputs.
+     */
+    private void calculateBatch(DataContext ctx)
+    {
+        clearFigures();
+        var series = ctx.getDataSeries();
+        int n = series.size();
+        var high = new float[n];
+        var low = new float[n];
+        var close = new float[n];
+        for (int i = 0; i < n; i++)
+        {
+            high[i] = series.getHigh(i);
+            low[i] = series.getLow(i);
+            close[i] = series.getClose(i);
+        }
+
+        var typicalPrices = new float[n];
+        WaveTrendMath.typicalPrice(high, low, close, typicalPrices, n);
+        var tp = new double[n];
+        for (int i = 0; i < n; i++)
+            tp[i] = typicalPrices[i];
+        var cols = new WaveTrendMath.Columns();
+        WaveTrendMath.compute(tp, n, CHLEN, AVG, MALEN, WARMUP_BARS, cols);
+
+        var settings = getSettings();
+        var bullishMarker = settings.getMarker(BULLISH_CROSSOVER_MARKER);
+        var bearishMarker = settings.getMarker(BEARISH_CROSSOVER_MARKER);
+        boolean showBullish = bullishMarker != null && bullishMarker.isEnabled();
+        boolean showBearish = bearishMarker != null && bearishMarker.isEnabled();
+        for (int i = WARMUP_BARS; i < n; i++)
+        {
+            // calculate() stops at the first value that is not ready yet, but keeps those before it.
+            series.setDouble(i, Values.ESA, cols.esa[i]);
+            series.setDouble(i, Values.TMP, cols.tmp[i]);
+            if (Double.isNaN(cols.ci[i]))
+                continue;
+            series.setDouble(i, Values.CI, cols.ci[i]);
+            if (Double.isNaN(cols.wt1[i]))
+                continue;
+            series.setDouble(i, Values.FAST_WAVE, cols.wt1[i]);
+            if (Double.isNaN(cols.wt2[i]))
+                continue;
+            series.setDouble(i, Values.SLOW_WAVE, cols.wt2[i]);
+            series.setDouble(i, Values.WAVE_DELTA, cols.delta[i]);
+
+            if (i > WARMUP_BARS && !Double.isNaN(cols.wt2[i - 1]))
+            {
+                var coord = new Coordinate(series.getStartTime(i), cols.wt2[i]);
+                if (showBullish && cols.wt1[i - 1] <= cols.wt2[i - 1] && cols.wt1[i] > cols.wt2[i])
+                    addMarker(new Marker(coord, Enums.Position.CENTER, bullishMarker, "Bullish Crossover"));
+                else if (showBearish && cols.wt1[i - 1] >= cols.wt2[i - 1] && cols.wt1[i] < cols.wt2[i])
+                    addMarker(new Marker(coord, Enums.Position.CENTER, bearishMarker, "Bearish Crossover"));
+            }
+            series.setComplete(i);
+        }
+
+        if (n > 0)
+            updateDivergences(n - 1, ctx);
+    }
+
+    private void resetDivergences()
+    {
+        _pivotLookback = getSettings().getInteger(PIVOT_LOOKBACK, 2);
+        int window = 2 * _pivotLookback + 1;
+        _waveHighs = new MonotonicDeque(window, true);
+        _waveLows = new MonotonicDeque(window, false);
+        _priceHighs = new MonotonicDeque(window, true);
+        _priceLows = new MonotonicDeque(window, false);
+        _firstPivotBar = -1;
+        _lastPivotBar = -1;
+        _prevHighIdx = -1;
+        _prevLowIdx = -1;
+        _divergences.clear();
+    }
+
+    /**
+     * Feeds completed bars up to i into the pivot windows. A bar is a pivot once it is still the extreme of the
+     * window after pivotLookback more bars, and its price extreme is the extreme of the same window.
+     */
+    private void updateDivergences(int i, DataContext ctx)
+    {
+        if (_waveHighs == null)
+            resetDivergences();
+
+        var series = ctx.getDataSeries();
+        for (int j = _lastPivotBar + 1; j <= i; j++)
+        {
+            if (!series.isBarComplete(j))
+                break;
+            Double wave = series.getDouble(j, Values.FAST_WAVE);
+            if (wave == null)
+                continue;
+            _lastPivotBar = j;
+            if (_firstPivotBar < 0)
+                _firstPivotBar = j;
+
+            _waveHighs.push(j, wave);
+            _waveLows.push(j, wave);
+            _priceHighs.push(j, series.getHigh(j));
+            _priceLows.push(j, series.getLow(j));
+
+            int pivot = j - _pivotLookback;
+            if (pivot - _pivotLookback < _firstPivotBar)
+                continue;
+            if (_waveHighs.getIndex() == pivot)
+                onWaveHigh(pivot, j, _waveHighs.getValue(), _priceHighs.getValue(), ctx);
+            if (_waveLows.getIndex() == pivot)
+                onWaveLow(pivot, j, _waveLows.getValue(), _priceLows.getValue(), ctx);
+        }
+    }
+
+    private void onWaveHigh(int pivot, int confirmedIdx, double wave, double price, DataContext ctx)
+    {
+        var settings = getSettings();
+        var overbought = settings.getGuide(OVERBOUGHT_GUIDE);
+        int maxDistance = settings.getInteger(MAX_PIVOT_DISTANCE, 60);
+        if (_prevHighIdx >= 0 && pivot - _prevHighIdx <= maxDistance && overbought != null && _prevHighWave >= overbought.getValue()
+                && wave < _prevHighWave && price > _prevHighPrice)
+        {
+            var series = ctx.getDataSeries();
+            if (!_memory.isAtLeast(MemoryBudget.Step.SKIP_MARKERS))
+                _divergences.add(false, series.getStartTime(_prevHighIdx), _prevHighWave, series.getStartTime(pivot), wave);
+            if (!_historical)
+                ctx.signal(confirmedIdx, Signals.BEARISH_DIVERGENCE, "Wave Trend Bearish Divergence", wave);
+        }
+        _prevHighIdx = pivot;
+        _prevHighWave = wave;
+        _prevHighPrice = price;
+    }
+
+    private void onWaveLow(int pivot, int confirmedIdx, double wave, double price, DataContext ctx)
+    {
+        var settings = getSettings();
+        var oversold = settings.getGuide(OVERSOLD_GUIDE);
+        int maxDistance = settings.getInteger(MAX_PIVOT_DISTANCE, 60);
+        if (_prevLowIdx >= 0 && pivot - _prevLowIdx <= maxDistance && oversold != null && _prevLowWave <= oversold.getValue()
+                && wave > _prevLowWave && price < _prevLowPrice)
+        {
+            var series = ctx.getDataSeries();
+            if (!_memory.isAtLeast(MemoryBudget.Step.SKIP_MARKERS))
+                _divergences.add(true, series.getStartTime(_prevLowIdx), _prevLowWave, series.getStartTime(pivot), wave);
+            if (!_historical)
+                ctx.signal(confirmedIdx, Signals.BULLISH_DIVERGENCE, "Wave Trend Bullish Divergence", wave);
+        }
+        _prevLowIdx = pivot;
+        _prevLowWave = wave;
+        _prevLowPrice = price;
     }
 }
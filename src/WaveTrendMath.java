@@ -0,0 +1,308 @@
+import java.util.Arrays;
+
+/**
+ * The WaveTrend calculation (see WaveTrend) on primitive arrays, for computing whole series at once
+ * without going through a DataSeries. Values that are still warming up are set to NaN.
+ * As in WaveTrend.calculate(), the ESA is averaged over every price, but the values derived from it (TMP onwards)
+ * can be held back until a given bar, so that the averages are seeded from the same bars as the per-bar path.
+ */
+public class WaveTrendMath
+{
+    /**
+     * Scratch and output columns for one series, reusable between calls to avoid allocation.
+     */
+    public static class Columns
+    {
+        public double[] esa = new double[0];
+        public double[] tmp = new double[0];
+        public double[] de = new double[0];
+        public double[] ci = new double[0];
+        public double[] wt1 = new double[0];
+        public double[] wt2 = new double[0];
+        public double[] delta = new double[0];
+
+        public void ensureCapacity(int n)
+        {
+            if (wt1.length >= n)
+                return;
+            esa = new double[n];
+            tmp = new double[n];
+            de = new double[n];
+            ci = new double[n];
+            wt1 = new double[n];
+            wt2 = new double[n];
+            delta = new double[n];
+        }
+    }
+
+    /**
+     * The same calculation carried forward one value at a time, for series that are built as they stream in.
+     * push() commits a value and peek() gives the result of pushing a value without committing it, both in O(1),
+     * so a value that is still changing can be evaluated repeatedly against the committed state.
+     */
+    public final static class State
+    {
+        final private Ema _esa;
+        final private Ema _de;
+        final private Ema _wt1;
+        final private Sma _wt2;
+        final private int _start;
+        private int _count;
+
+        // Results of the last push() or peek().
+        public double esa, tmp, ci, wt1, wt2, delta;
+
+        public State(int chlen, int avg, int malen)
+        {
+            this(chlen, avg, malen, 0);
+        }
+
+        /**
+         * @param start number of values pushed before TMP is fed to the averages, see compute()
+         */
+        public State(int chlen, int avg, int malen, int start)
+        {
+            _esa = new Ema(chlen);
+            _de = new Ema(chlen);
+            _wt1 = new Ema(avg);
+            _wt2 = new Sma(malen);
+            _start = start;
+            clear();
+        }
+
+        public void clear()
+        {
+            _esa.clear();
+            _de.clear();
+            _wt1.clear();
+            _wt2.clear();
+            _count = 0;
+            esa = tmp = ci = wt1 = wt2 = delta = Double.NaN;
+        }
+
+        public void push(double tp)
+        {
+            update(tp, true);
+        }
+
+        public void peek(double tp)
+        {
+            update(tp, false);
+        }
+
+        private void update(double tp, boolean commit)
+        {
+            esa = _esa.update(tp, commit);
+            tmp = _count >= _start ? Math.abs(tp - esa) : Double.NaN;
+            if (commit)
+                _count++;
+            double de = _de.update(tmp, commit);
+            ci = (tp - esa) / (0.015 * de);
+            wt1 = _wt1.update(ci, commit);
+            wt2 = _wt2.update(wt1, commit);
+            delta = wt1 - wt2;
+        }
+    }
+
+    /**
+     * Incremental form of ema(): NaN until period valid values have been seen, leading NaNs are skipped.
+     */
+    private static class Ema
+    {
+        final private int _period;
+        final private double _k;
+        private int _count;
+        private double _sum;
+        private double _value;
+
+        Ema(int period)
+        {
+            _period = period;
+            _k = 2.0 / (period + 1);
+        }
+
+        void clear()
+        {
+            _count = 0;
+            _sum = 0;
+            _value = Double.NaN;
+        }
+
+        double update(double x, boolean commit)
+        {
+            if (Double.isNaN(x))
+                return _count >= _period ? _value : Double.NaN;
+            double value;
+            if (_count < _period - 1)
+                value = Double.NaN;
+            else if (_count == _period - 1)
+                value = (_sum + x) / _period;
+            else
+                value = _value + _k * (x - _value);
+            if (commit)
+            {
+                if (_count < _period)
+                    _sum += x;
+                _count++;
+                _value = value;
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Incremental form of sma(), keeping the last period - 1 committed values.
+     */
+    private static class Sma
+    {
+        final private int _period;
+        final private double[] _ring;
+        private int _count;
+        private int _next;
+        private double _sum;
+
+        Sma(int period)
+        {
+            _period = period;
+            _ring = new double[Math.max(1, period - 1)];
+        }
+
+        void clear()
+        {
+            _count = 0;
+            _next = 0;
+            _sum = 0;
+        }
+
+        double update(double x, boolean commit)
+        {
+            if (Double.isNaN(x))
+                return Double.NaN;
+            double value = _count >= _period - 1 ? (_sum + x) / _period : Double.NaN;
+            if (commit && _period > 1)
+            {
+                if (_count >= _period - 1)
+                    _sum -= _ring[_next];
+                _ring[_next] = x;
+                _sum += x;
+                _next = (_next + 1) % _ring.length;
+                _count++;
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Computes the fast (wt1) and slow (wt2) waves and their delta for the first n typical prices into cols.
+     */
+    public static void compute(double[] tp, int n, int chlen, int avg, int malen, Columns cols)
+    {
+        compute(tp, n, chlen, avg, malen, 0, cols);
+    }
+
+    /**
+     * As above, with TMP (and so everything after it) starting at bar start.
+     * Only the moving averages are recursive, the element-wise loops in between are simple enough for the JIT to vectorise.
+     */
+    public static void compute(double[] tp, int n, int chlen, int avg, int malen, int start, Columns cols)
+    {
+        cols.ensureCapacity(n);
+        ema(tp, n, chlen, cols.esa);
+        int first = Math.min(start, n);
+        Arrays.fill(cols.tmp, 0, first, Double.NaN);
+        absDiff(tp, cols.esa, cols.tmp, first, n);
+        ema(cols.tmp, n, chlen, cols.de);
+        ci(tp, cols.esa, cols.de, cols.ci, n);
+        ema(cols.ci, n, avg, cols.wt1);
+        sma(cols.wt1, n, malen, cols.wt2);
+        diff(cols.wt1, cols.wt2, cols.delta, n);
+    }
+
+    /**
+     * out[i] = (high[i] + low[i] + close[i]) / 3, in float like DataSeries.getTypicalPrice().
+     */
+    public static void typicalPrice(float[] high, float[] low, float[] close, float[] out, int n)
+    {
+        for (int i = 0; i < n; i++)
+            out[i] = (high[i] + low[i] + close[i]) / 3f;
+    }
+
+    /**
+     * Exponential moving average, seeded with the simple average of the first period valid values.
+     */
+    public static void ema(double[] src, int n, int period, double[] dst)
+    {
+        Arrays.fill(dst, 0, n, Double.NaN);
+        int first = firstValid(src, n);
+        if (first < 0 || first + period > n)
+            return;
+
+        double sum = 0;
+        for (int i = first; i < first + period; i++)
+            sum += src[i];
+        double ema = sum / period;
+        dst[first + period - 1] = ema;
+
+        double k = 2.0 / (period + 1);
+        for (int i = first + period; i < n; i++)
+        {
+            ema += k * (src[i] - ema);
+            dst[i] = ema;
+        }
+    }
+
+    public static void sma(double[] src, int n, int period, double[] dst)
+    {
+        Arrays.fill(dst, 0, n, Double.NaN);
+        int first = firstValid(src, n);
+        if (first < 0 || first + period > n)
+            return;
+
+        double sum = 0;
+        for (int i = first; i < n; i++)
+        {
+            sum += src[i];
+            if (i >= first + period)
+                sum -= src[i - period];
+            if (i >= first + period - 1)
+                dst[i] = sum / period;
+        }
+    }
+
+    /**
+     * out[i] = |tp[i] - esa[i]| for i from first up to n
+     */
+    private static void absDiff(double[] tp, double[] esa, double[] out, int first, int n)
+    {
+        for (int i = first; i < n; i++)
+            out[i] = Math.abs(tp[i] - esa[i]);
+    }
+
+    /**
+     * out[i] = (tp[i] - esa[i]) / (0.015 * de[i])
+     */
+    private static void ci(double[] tp, double[] esa, double[] de, double[] out, int n)
+    {
+        for (int i = 0; i < n; i++)
+            out[i] = (tp[i] - esa[i]) / (0.015 * de[i]);
+    }
+
+    /**
+     * out[i] = a[i] - b[i]
+     */
+    private static void diff(double[] a, double[] b, double[] out, int n)
+    {
+        for (int i = 0; i < n; i++)
+            out[i] = a[i] - b[i];
+    }
+
+    private static int firstValid(double[] src, int n)
+    {
+        for (int i = 0; i < n; i++)
+        {
+            if (!Double.isNaN(src[i]))
+                return i;
+        }
+        return -1;
+    }
+}
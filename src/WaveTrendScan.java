@@ -0,0 +1,144 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Scans many instruments for WaveTrend crossovers and overbought/oversold states.
+ * Each instrument is a column of typical prices aligned to a shared set of bar times; the columns are
+ * computed in parallel on a fixed-size pool, so CPU usage is bounded however many instruments are scanned.
+ */
+public class WaveTrendScan
+{
+    public final static int BULLISH = 1;
+    public final static int BEARISH = -1;
+    public final static int NONE = 0;
+
+    public final static int OVERBOUGHT = 1;
+    public final static int OVERSOLD = -1;
+
+    final static int PARALLELISM = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    private static final ForkJoinPool POOL = new ForkJoinPool(PARALLELISM, pool -> {
+        var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("WaveTrendScan-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    }, null, false);
+    private static final ThreadLocal<WaveTrendMath.Columns> COLUMNS = ThreadLocal.withInitial(WaveTrendMath.Columns::new);
+
+    public static class Result
+    {
+        final public String symbol;
+        final public int crossDirection;
+        final public int barsSinceCross;
+        final public long crossTime;
+        final public double fastWave;
+        final public double slowWave;
+        final public int zone;
+
+        Result(String symbol, int crossDirection, int barsSinceCross, long crossTime, double fastWave, double slowWave, int zone)
+        {
+            this.symbol = symbol;
+            this.crossDirection = crossDirection;
+            this.barsSinceCross = barsSinceCross;
+            this.crossTime = crossTime;
+            this.fastWave = fastWave;
+            this.slowWave = slowWave;
+            this.zone = zone;
+        }
+
+        public boolean hasCross()
+        {
+            return crossDirection != NONE;
+        }
+    }
+
+    /**
+     * Most recent crossovers first, the more extreme fast wave breaking ties. Instruments without a crossover come last.
+     */
+    public final static Comparator<Result> RANKING = Comparator
+            .comparing((Result r) -> !r.hasCross())
+            .thenComparingInt(r -> r.hasCross() ? r.barsSinceCross : 0)
+            .thenComparingDouble(r -> -Math.abs(r.fastWave));
+
+    /**
+     * @param symbols one per column
+     * @param prices typical price columns, NaN where an instrument has no bar
+     * @param times bar start times shared by every column
+     * @param n number of bars in each column
+     * @return one result per instrument with enough data, ranked
+     */
+    public static List<Result> scan(String[] symbols, double[][] prices, long[] times, int n, double overbought, double oversold)
+    {
+        var results = new Result[symbols.length];
+        POOL.submit(() -> IntStream.range(0, symbols.length).parallel()
+                .forEach(c -> results[c] = scan(symbols[c], prices[c], times, n, overbought, oversold))).join();
+
+        var ranked = new ArrayList<Result>(results.length);
+        for (var r : results)
+        {
+            if (r != null)
+                ranked.add(r);
+        }
+        ranked.sort(RANKING);
+        return ranked;
+    }
+
+    static Result scan(String symbol, double[] tp, long[] times, int n, double overbought, double oversold)
+    {
+        int first = fillGaps(tp, n);
+        if (first < 0)
+            return null;
+        // Same warm-up as the WaveTrend study, counted from the instrument's first bar.
+        var cols = COLUMNS.get();
+        WaveTrendMath.compute(tp, n, WaveTrend.CHLEN, WaveTrend.AVG, WaveTrend.MALEN, first + WaveTrend.WARMUP_BARS, cols);
+        double[] wt1 = cols.wt1;
+        double[] wt2 = cols.wt2;
+
+        int last = n - 1;
+        if (last < 1 || Double.isNaN(wt2[last]))
+            return null;
+
+        int zone = wt1[last] >= overbought ? OVERBOUGHT : wt1[last] <= oversold ? OVERSOLD : NONE;
+        for (int i = last; i > 0 && !Double.isNaN(wt2[i - 1]); i--)
+        {
+            if (wt1[i - 1] <= wt2[i - 1] && wt1[i] > wt2[i])
+                return new Result(symbol, BULLISH, last - i, times[i], wt1[last], wt2[last], zone);
+            if (wt1[i - 1] >= wt2[i - 1] && wt1[i] < wt2[i])
+                return new Result(symbol, BEARISH, last - i, times[i], wt1[last], wt2[last], zone);
+        }
+        return new Result(symbol, NONE, 0, 0, wt1[last], wt2[last], zone);
+    }
+
+    /**
+     * Carries the last known price over bars where an instrument did not trade, so gaps do not break the averages.
+     * Leading gaps are left as NaN.
+     * @return index of the first price, or -1 if there is none
+     */
+    private static int fillGaps(double[] tp, int n)
+    {
+        int first = -1;
+        double prev = Double.NaN;
+        for (int i = 0; i < n; i++)
+        {
+            if (Double.isNaN(tp[i]))
+                tp[i] = prev;
+            else
+            {
+                if (first < 0)
+                    first = i;
+                prev = tp[i];
+            }
+        }
+        return first;
+    }
+
+    static double[] newColumn(int n)
+    {
+        var column = new double[n];
+        Arrays.fill(column, Double.NaN);
+        return column;
+    }
+}
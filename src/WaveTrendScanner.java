@@ -0,0 +1,243 @@
+import com.motivewave.platform.sdk.common.*;
+import com.motivewave.platform.sdk.common.desc.BooleanDescriptor;
+import com.motivewave.platform.sdk.common.desc.InstrumentDescriptor;
+import com.motivewave.platform.sdk.common.desc.IntegerDescriptor;
+import com.motivewave.platform.sdk.draw.Figure;
+import com.motivewave.platform.sdk.study.Study;
+import com.motivewave.platform.sdk.study.StudyHeader;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+@StudyHeader(
+        namespace="gambcl.motivewave",
+        id="WAVE_TREND_SCANNER",
+        name="Wave Trend Scanner",
+        desc="Scans a watchlist for wave trend crossovers and overbought/oversold states.",
+        menu="Custom",
+        overlay=false,
+        studyOverlay=false,
+        multipleInstrument=true,
+        signals=true)
+public class WaveTrendScanner extends Study
+{
+    enum Signals {BULLISH_CROSSOVER, BEARISH_CROSSOVER}
+
+    class ScanTable extends Figure
+    {
+        final private static int PADDING = 4;
+
+        @Override
+        public boolean contains(double x, double y, DrawContext ctx)
+        {
+            var bounds = getBounds();
+            return bounds != null && bounds.contains(x, y);
+        }
+
+        @Override
+        public String getPopupMessage(double x, double y, DrawContext ctx)
+        {
+            var results = _results;
+            var msg = new StringBuilder("Wave Trend Scan (" + results.size() + " symbols)");
+            for (var r : results)
+                msg.append("\n").append(row(r));
+            return msg.toString();
+        }
+
+        @Override
+        public void draw(Graphics2D gc, DrawContext ctx)
+        {
+            var results = _results;
+            int maxRows = getSettings().getInteger(MAX_ROWS, 20);
+            var lines = new ArrayList<String>();
+            lines.add("Wave Trend Scan");
+            for (int i = 0; i < results.size() && i < maxRows; i++)
+                lines.add(row(results.get(i)));
+            if (results.isEmpty())
+                lines.add("No symbols with enough data");
+
+            var defaults = ctx.getDefaults();
+            gc.setFont(defaults.getFont());
+            var fm = gc.getFontMetrics();
+            int w = 0;
+            for (var line : lines)
+                w = Math.max(w, fm.stringWidth(line));
+            int h = lines.size() * fm.getHeight();
+            var bounds = ctx.getBounds();
+            int x = bounds.x + PADDING;
+            int y = bounds.y + PADDING;
+            setBounds(new Rectangle(x, y, w + 2 * PADDING, h + 2 * PADDING));
+
+            gc.setColor(defaults.getBackgroundColor());
+            gc.fillRect(x, y, w + 2 * PADDING, h + 2 * PADDING);
+            for (int i = 0; i < lines.size(); i++)
+            {
+                Color color = defaults.getTextColor();
+                if (i > 0 && i <= results.size())
+                {
+                    var r = results.get(i - 1);
+                    if (r.crossDirection == WaveTrendScan.BULLISH)
+                        color = defaults.getGreen();
+                    else if (r.crossDirection == WaveTrendScan.BEARISH)
+                        color = defaults.getRed();
+                }
+                gc.setColor(color);
+                gc.drawString(lines.get(i), x + PADDING, y + PADDING + fm.getAscent() + i * fm.getHeight());
+            }
+        }
+
+        private String row(WaveTrendScan.Result r)
+        {
+            var row = new StringBuilder(r.symbol).append(": ");
+            if (r.crossDirection == WaveTrendScan.BULLISH)
+                row.append("Bullish cross ");
+            else if (r.crossDirection == WaveTrendScan.BEARISH)
+                row.append("Bearish cross ");
+            else
+                row.append("No cross ");
+            if (r.hasCross())
+                row.append(r.barsSinceCross == 0 ? "this bar" : r.barsSinceCross + " bars ago");
+            row.append(", WT ").append(Math.round(r.fastWave)).append("/").append(Math.round(r.slowWave));
+            if (r.zone == WaveTrendScan.OVERBOUGHT)
+                row.append(", overbought");
+            else if (r.zone == WaveTrendScan.OVERSOLD)
+                row.append(", oversold");
+            return row.toString();
+        }
+    }
+
+    final static String SYMBOL_PREFIX = "symbol";
+    final static String INCLUDE_CHART_SYMBOL = "includeChartSymbol";
+    final static String SCAN_BARS = "scanBars";
+    final static String OVERBOUGHT_LEVEL = "overboughtLevel";
+    final static String OVERSOLD_LEVEL = "oversoldLevel";
+    final static String MAX_ROWS = "maxRows";
+    final static int MAX_SYMBOLS = 30;
+
+    private volatile List<WaveTrendScan.Result> _results = List.of();
+    private final ScanTable _table = new ScanTable();
+    // Time of the last crossover signalled for each symbol, so each crossover is only signalled once.
+    private final HashMap<String, Long> _signalledCrosses = new HashMap<>();
+
+    @Override
+    public void initialize(Defaults defaults)
+    {
+        var sd = createSD();
+        var tabGeneral = sd.addTab("General");
+
+        var grpScan = tabGeneral.addGroup("Scan");
+        grpScan.addRow(new BooleanDescriptor(INCLUDE_CHART_SYMBOL, "Include Chart Symbol", true));
+        grpScan.addRow(new IntegerDescriptor(SCAN_BARS, "Bars", 500, 100, 10000, 1));
+        grpScan.addRow(new IntegerDescriptor(OVERBOUGHT_LEVEL, "Overbought", 60, -100, 100, 1));
+        grpScan.addRow(new IntegerDescriptor(OVERSOLD_LEVEL, "Oversold", -60, -100, 100, 1));
+        grpScan.addRow(new IntegerDescriptor(MAX_ROWS, "Rows Shown", 20, 1, MAX_SYMBOLS + 1, 1));
+
+        var tabSymbols = sd.addTab("Symbols");
+        var grpSymbols = tabSymbols.addGroup("Watchlist");
+        for (int i = 1; i <= MAX_SYMBOLS; i++)
+            grpSymbols.addRow(new InstrumentDescriptor(SYMBOL_PREFIX + i, "Symbol " + i));
+
+        var rd = createRD();
+        rd.setLabelPrefix("Wave Trend Scanner");
+        rd.declareSignal(Signals.BULLISH_CROSSOVER, "Bullish Crossover");
+        rd.declareSignal(Signals.BEARISH_CROSSOVER, "Bearish Crossover");
+    }
+
+    @Override
+    protected void calculateValues(DataContext ctx)
+    {
+        _signalledCrosses.clear();
+        scan(ctx, false);
+    }
+
+    @Override
+    public void onBarClose(DataContext ctx)
+    {
+        scan(ctx, true);
+    }
+
+    /**
+     * Copies the last SCAN_BARS bars of each instrument into primitive columns, then computes them all in parallel.
+     */
+    private void scan(DataContext ctx, boolean signal)
+    {
+        var series = ctx.getDataSeries();
+        var instruments = getWatchlist(ctx);
+        int n = Math.min(series.size(), getSettings().getInteger(SCAN_BARS, 500));
+        if (instruments.isEmpty() || n < 2)
+        {
+            _results = List.of();
+            setFigures(List.of(_table));
+            return;
+        }
+
+        int offset = series.size() - n;
+        var times = new long[n];
+        for (int i = 0; i < n; i++)
+            times[i] = series.getStartTime(offset + i);
+
+        var symbols = new String[instruments.size()];
+        var prices = new double[instruments.size()][];
+        int c = 0;
+        for (var instrument : instruments)
+        {
+            symbols[c] = instrument.getSymbol();
+            prices[c] = WaveTrendScan.newColumn(n);
+            for (int i = 0; i < n; i++)
+            {
+                var tp = series.getTypicalPrice(offset + i, instrument);
+                if (tp != null && !Float.isNaN(tp))
+                    prices[c][i] = tp;
+            }
+            c++;
+        }
+
+        var settings = getSettings();
+        var results = WaveTrendScan.scan(symbols, prices, times, n,
+                settings.getInteger(OVERBOUGHT_LEVEL, 60), settings.getInteger(OVERSOLD_LEVEL, -60));
+        _results = results;
+        setFigures(List.of(_table));
+
+        if (signal)
+            signalCrosses(ctx, results, series.size() - 1);
+        else
+        {
+            for (var r : results)
+                _signalledCrosses.put(r.symbol, r.crossTime);
+        }
+    }
+
+    private void signalCrosses(DataContext ctx, List<WaveTrendScan.Result> results, int barIdx)
+    {
+        for (var r : results)
+        {
+            if (!r.hasCross())
+                break;
+            var prev = _signalledCrosses.put(r.symbol, r.crossTime);
+            if (prev != null && prev == r.crossTime)
+                continue;
+            if (r.crossDirection == WaveTrendScan.BULLISH)
+                ctx.signal(barIdx, Signals.BULLISH_CROSSOVER, r.symbol + " Wave Trend Bullish Crossover", r.fastWave);
+            else
+                ctx.signal(barIdx, Signals.BEARISH_CROSSOVER, r.symbol + " Wave Trend Bearish Crossover", r.fastWave);
+        }
+    }
+
+    private List<Instrument> getWatchlist(DataContext ctx)
+    {
+        var settings = getSettings();
+        var watchlist = new LinkedHashMap<String, Instrument>();
+        if (settings.getBoolean(INCLUDE_CHART_SYMBOL, true) && ctx.getInstrument() != null)
+            watchlist.put(ctx.getInstrument().getSymbol(), ctx.getInstrument());
+        for (int i = 1; i <= MAX_SYMBOLS; i++)
+        {
+            var instrument = settings.getInstrument(SYMBOL_PREFIX + i);
+            if (instrument != null)
+                watchlist.putIfAbsent(instrument.getSymbol(), instrument);
+        }
+        return new ArrayList<>(watchlist.values());
+    }
+}
@@ -0,0 +1,115 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A dataset of bars in primitive arrays: either generated from a fixed seed, or loaded from a CSV file of
+ * time (epoch millis), open, high, low, close as exported from a chart.
+ */
+public class Bars
+{
+    final static double TICK_SIZE = 0.25;
+    // Friday 8 March 2024 00:00 UTC, so the synthetic bars run through the US DST change on the 10th.
+    final static long SYNTHETIC_START = 1709856000000L;
+    final static long MINUTE = 60_000L;
+
+    final public String name;
+    final public int size;
+    final public long[] times;
+    final public float[] open;
+    final public float[] high;
+    final public float[] low;
+    final public float[] close;
+
+    Bars(String name, int size)
+    {
+        this.name = name;
+        this.size = size;
+        times = new long[size];
+        open = new float[size];
+        high = new float[size];
+        low = new float[size];
+        close = new float[size];
+    }
+
+    /**
+     * Every dataset the golden tests run against: the synthetic ones, then each CSV file in dataDir.
+     */
+    static List<Bars> all(Path dataDir) throws IOException
+    {
+        var datasets = new ArrayList<Bars>();
+        datasets.add(synthetic("synthetic-walk", 4000, 42, 0.1));
+        datasets.add(synthetic("synthetic-gaps", 4000, 7, 0.6));
+        if (Files.isDirectory(dataDir))
+        {
+            try (var files = Files.list(dataDir))
+            {
+                for (var file : files.filter(f -> f.toString().endsWith(".csv")).sorted().toList())
+                    datasets.add(load(file));
+            }
+        }
+        return datasets;
+    }
+
+    /**
+     * One minute bars of a random walk in whole ticks.
+     * @param gapRate chance of a bar opening away from the previous close, which is what makes volume imbalances
+     */
+    static Bars synthetic(String name, int size, long seed, double gapRate)
+    {
+        var bars = new Bars(name, size);
+        var random = new Random(seed);
+        long price = 18000;
+        for (int i = 0; i < size; i++)
+        {
+            long o = random.nextDouble() < gapRate ? price + random.nextInt(9) - 4 : price;
+            long c = o + random.nextInt(13) - 6;
+            bars.times[i] = SYNTHETIC_START + i * MINUTE;
+            bars.open[i] = (float)(o * TICK_SIZE);
+            bars.close[i] = (float)(c * TICK_SIZE);
+            bars.high[i] = (float)((Math.max(o, c) + random.nextInt(4)) * TICK_SIZE);
+            bars.low[i] = (float)((Math.min(o, c) - random.nextInt(4)) * TICK_SIZE);
+            price = c;
+        }
+        return bars;
+    }
+
+    static Bars load(Path file) throws IOException
+    {
+        var rows = new ArrayList<String[]>();
+        for (var line : Files.readAllLines(file))
+        {
+            if (line.isBlank() || line.startsWith("#") || line.startsWith("time"))
+                continue;
+            rows.add(line.split(","));
+        }
+        var name = file.getFileName().toString().replace(".csv", "");
+        var bars = new Bars(name, rows.size());
+        for (int i = 0; i < rows.size(); i++)
+        {
+            var row = rows.get(i);
+            bars.times[i] = Long.parseLong(row[0].trim());
+            bars.open[i] = Float.parseFloat(row[1].trim());
+            bars.high[i] = Float.parseFloat(row[2].trim());
+            bars.low[i] = Float.parseFloat(row[3].trim());
+            bars.close[i] = Float.parseFloat(row[4].trim());
+        }
+        return bars;
+    }
+
+    /**
+     * Typical prices as WaveTrend.calculateBatch() computes them, in float and then widened.
+     */
+    double[] typicalPrices()
+    {
+        var tpf = new float[size];
+        WaveTrendMath.typicalPrice(high, low, close, tpf, size);
+        var tp = new double[size];
+        for (int i = 0; i < size; i++)
+            tp[i] = tpf[i];
+        return tp;
+    }
+}
@@ -0,0 +1,79 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The output of one test case on one dataset, as lines of space separated tokens, checked against a stored file.
+ * Tokens that parse as numbers are compared within a relative tolerance (0 for bit-exact), anything else must match.
+ */
+public class Golden
+{
+    final private List<String> _lines = new ArrayList<>();
+
+    public void add(Object... tokens)
+    {
+        var line = new StringBuilder();
+        for (var token : tokens)
+        {
+            if (line.length() > 0)
+                line.append(' ');
+            line.append(token);
+        }
+        _lines.add(line.toString());
+    }
+
+    public int size()
+    {
+        return _lines.size();
+    }
+
+    public void write(Path file) throws IOException
+    {
+        Files.createDirectories(file.getParent());
+        Files.write(file, _lines);
+    }
+
+    /**
+     * @return null if the lines match the file, otherwise a description of the first difference
+     */
+    public String compare(Path file, double tolerance) throws IOException
+    {
+        if (!Files.exists(file))
+            return "missing " + file + " (run with -Dgolden.update=true to create it)";
+        var expected = Files.readAllLines(file);
+        for (int i = 0; i < Math.min(expected.size(), _lines.size()); i++)
+        {
+            var want = expected.get(i).split(" ");
+            var got = _lines.get(i).split(" ");
+            boolean same = want.length == got.length;
+            for (int t = 0; same && t < want.length; t++)
+                same = matches(want[t], got[t], tolerance);
+            if (!same)
+                return file.getFileName() + ":" + (i + 1) + " expected [" + expected.get(i) + "] but was [" + _lines.get(i) + "]";
+        }
+        if (expected.size() != _lines.size())
+            return file.getFileName() + " expected " + expected.size() + " lines but was " + _lines.size();
+        return null;
+    }
+
+    private static boolean matches(String want, String got, double tolerance)
+    {
+        if (want.equals(got))
+            return true;
+        double a, b;
+        try
+        {
+            a = Double.parseDouble(want);
+            b = Double.parseDouble(got);
+        }
+        catch (NumberFormatException e)
+        {
+            return false;
+        }
+        if (Double.isNaN(a) || Double.isNaN(b) || Double.isInfinite(a) || Double.isInfinite(b))
+            return false;
+        return Math.abs(a - b) <= tolerance * Math.max(1.0, Math.max(Math.abs(a), Math.abs(b)));
+    }
+}
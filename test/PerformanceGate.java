@@ -0,0 +1,191 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+/**
+ * Times the studies' hot paths and fails if any median is slower than the committed baseline
+ * (test/perf-baseline.properties) by more than the threshold, or if there is no baseline.
+ * Each median is taken relative to a calibration loop timed in the same JVM, so the baseline holds ratios rather
+ * than milliseconds and does not depend on the machine it was recorded on. Timings are still noisy on a busy
+ * machine, hence the generous default threshold.
+ * Run with: ant test [-Dperf.threshold=0.5] [-Dperf.update=true to record the baseline]
+ */
+public class PerformanceGate
+{
+    final static int BARS = 1 << 18;
+    final static int WARMUP_RUNS = 5;
+    final static int RUNS = 15;
+    final static int UPDATE_ROUNDS = 3;
+    // Enough passes for the calibration to take about as long as the quicker benchmarks.
+    final static int CALIBRATION_PASSES = 4;
+
+    // Keeps results alive so the work is not optimised away.
+    static double _sink;
+
+    public static void main(String[] args) throws IOException
+    {
+        var baselineFile = Path.of(args.length > 0 ? args[0] : "test").resolve("perf-baseline.properties");
+        boolean update = Boolean.getBoolean("perf.update");
+        double threshold = Double.parseDouble(System.getProperty("perf.threshold", "0.5"));
+
+        var bars = Bars.synthetic("bench", BARS, 42, 0.3);
+        var tp = bars.typicalPrices();
+        var benchmarks = new LinkedHashMap<String, Supplier<Double>>();
+        benchmarks.put("wavetrend-batch", () -> batch(tp));
+        benchmarks.put("wavetrend-streaming", () -> streaming(tp));
+        benchmarks.put("imbalance-index", () -> imbalanceIndex(bars));
+        benchmarks.put("price-zones", () -> priceZones(bars));
+        benchmarks.put("rolling-stats", () -> rollingStats(tp));
+
+        var baseline = new Properties();
+        if (Files.exists(baselineFile))
+        {
+            try (Reader in = Files.newBufferedReader(baselineFile))
+            {
+                baseline.load(in);
+            }
+        }
+
+        // A recorded baseline is the slowest of several rounds, so that ordinary noise stays within the threshold.
+        var ratios = new TreeMap<String, Double>();
+        var failures = new ArrayList<String>();
+        for (int round = 0; round < (update ? UPDATE_ROUNDS : 1); round++)
+        {
+            double calibration = median(() -> calibrate(tp));
+            System.out.printf("%-24s %9.3f ms%n", "calibration", calibration);
+            for (var entry : benchmarks.entrySet())
+            {
+                double median = median(entry.getValue());
+                double ratio = median / calibration;
+                ratios.merge(entry.getKey(), ratio, Math::max);
+                var base = baseline.getProperty(entry.getKey());
+                if (update || base == null)
+                {
+                    System.out.printf("%-24s %9.3f ms ratio %7.4f%s%n", entry.getKey(), median, ratio, update ? "" : " (no baseline) FAIL");
+                    failures.add(entry.getKey());
+                    continue;
+                }
+                double limit = Double.parseDouble(base) * (1 + threshold);
+                boolean ok = ratio <= limit;
+                System.out.printf("%-24s %9.3f ms ratio %7.4f baseline %7s limit %7.4f %s%n", entry.getKey(), median, ratio, base, limit, ok ? "PASS" : "FAIL");
+                if (!ok)
+                    failures.add(entry.getKey());
+            }
+        }
+
+        if (update)
+        {
+            var updated = new Properties();
+            for (var entry : ratios.entrySet())
+                updated.setProperty(entry.getKey(), String.format("%.4f", entry.getValue()));
+            try (Writer out = Files.newBufferedWriter(baselineFile))
+            {
+                updated.store(out, "Median time per run relative to the calibration loop, see PerformanceGate");
+            }
+            System.out.println("Baseline written to " + baselineFile);
+            return;
+        }
+        if (!failures.isEmpty())
+        {
+            System.out.println("Slower than baseline, or missing from it (record with -Dperf.update=true): " + failures);
+            System.exit(1);
+        }
+    }
+
+    private static double median(Supplier<Double> run)
+    {
+        for (int i = 0; i < WARMUP_RUNS; i++)
+            _sink += run.get();
+        var times = new double[RUNS];
+        for (int i = 0; i < RUNS; i++)
+        {
+            long start = System.nanoTime();
+            _sink += run.get();
+            times[i] = (System.nanoTime() - start) / 1e6;
+        }
+        Arrays.sort(times);
+        return times[RUNS / 2];
+    }
+
+    /**
+     * Plain floating point work over the same prices, the unit every benchmark is measured in:
+     * an exponential average and the absolute deviation from it, written to an array.
+     */
+    private static double calibrate(double[] tp)
+    {
+        var out = new double[tp.length];
+        double sum = 0;
+        for (int pass = 1; pass <= CALIBRATION_PASSES; pass++)
+        {
+            double k = 1.0 / (pass + 1);
+            double avg = tp[0];
+            for (int i = 0; i < tp.length; i++)
+            {
+                avg += (tp[i] - avg) * k;
+                out[i] = Math.abs(tp[i] - avg);
+            }
+            sum += out[tp.length - 1];
+        }
+        return sum;
+    }
+
+    private static double batch(double[] tp)
+    {
+        var cols = new WaveTrendMath.Columns();
+        WaveTrendMath.compute(tp, tp.length, WaveTrend.CHLEN, WaveTrend.AVG, WaveTrend.MALEN, WaveTrend.WARMUP_BARS, cols);
+        return cols.delta[tp.length - 1];
+    }
+
+    private static double streaming(double[] tp)
+    {
+        var state = new WaveTrendMath.State(WaveTrend.CHLEN, WaveTrend.AVG, WaveTrend.MALEN, WaveTrend.WARMUP_BARS);
+        for (double price : tp)
+            state.push(price);
+        return state.delta;
+    }
+
+    private static double imbalanceIndex(Bars bars)
+    {
+        var index = new ImbalanceEventIndex(new TickPrice(Bars.TICK_SIZE));
+        index.update(StandIns.series(bars, bars.size, bars.size));
+        return index.size();
+    }
+
+    private static double priceZones(Bars bars)
+    {
+        var prices = new TickPrice(Bars.TICK_SIZE);
+        var zones = new PriceZoneSet();
+        var closed = new ArrayList<PriceZoneSet.Zone>();
+        for (int i = 1; i < bars.size; i++)
+        {
+            long prevClose = prices.toTicks(bars.close[i - 1]);
+            long open = prices.toTicks(bars.open[i]);
+            zones.remove(prices.toTicks(bars.low[i]), prices.toTicks(bars.high[i]), bars.times[i], closed);
+            if (open != prevClose)
+                zones.insert(Math.min(open, prevClose), Math.max(open, prevClose), bars.times[i], closed);
+        }
+        return zones.size() + closed.size();
+    }
+
+    private static double rollingStats(double[] tp)
+    {
+        var stats = new RollingStats(250);
+        double sum = 0;
+        for (int i = 1; i < tp.length; i++)
+        {
+            double range = Math.abs(tp[i] - tp[i - 1]);
+            Double rank = stats.percentileRank(range);
+            sum += rank != null ? rank : 0;
+            stats.add(range);
+        }
+        return sum;
+    }
+}
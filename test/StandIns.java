@@ -0,0 +1,122 @@
+import com.motivewave.platform.sdk.common.DataSeries;
+import com.motivewave.platform.sdk.common.Instrument;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Minimal stand-ins for the SDK interfaces the calculation classes read, backed by a Bars dataset.
+ * Only the methods they use are implemented, anything else throws so a test never silently reads a default.
+ * The series also stores values and averages them like the SDK, so a study's calculate(i) can be followed bar by bar:
+ * ema() is seeded with the simple average of the first period values stored under its key and is recursive from there,
+ * sma() averages the last period values, and both are null until period values are available.
+ */
+public class StandIns
+{
+    // Key for the typical price, in place of Enums.BarInput.TP (Enums can't be loaded outside MotiveWave).
+    final static Object TP = "TP";
+
+    /**
+     * @param complete number of bars (from the start) reported as complete, the rest are still forming
+     */
+    static DataSeries series(Bars bars, int size, int complete)
+    {
+        var values = new HashMap<Object, Double[]>();
+        return (DataSeries)Proxy.newProxyInstance(DataSeries.class.getClassLoader(), new Class<?>[] {DataSeries.class}, (proxy, method, args) -> {
+            int n = args == null ? 0 : args.length;
+            switch (method.getName() + "/" + n)
+            {
+                case "size/0": return size;
+                case "getStartTime/1": return bars.times[(int)args[0]];
+                case "getEndTime/1": return bars.times[(int)args[0]] + Bars.MINUTE;
+                case "getOpen/1": return bars.open[(int)args[0]];
+                case "getHigh/1": return bars.high[(int)args[0]];
+                case "getLow/1": return bars.low[(int)args[0]];
+                case "getClose/1": return bars.close[(int)args[0]];
+                case "isBarComplete/1": return (int)args[0] < complete;
+                case "getTypicalPrice/1": return typicalPrice(bars, (int)args[0]);
+                case "setDouble/3": values.computeIfAbsent(args[1], k -> new Double[size])[(int)args[0]] = (Double)args[2]; return null;
+                case "getDouble/2": return value(bars, values, (int)args[0], args[1]);
+                case "setComplete/1": return null;
+                case "ema/3": return ema(bars, values, (int)args[0], (int)args[1], args[2]);
+                case "sma/3": return sma(bars, values, (int)args[0], (int)args[1], args[2]);
+                case "findIndex/1":
+                {
+                    // Index of the bar containing the time, like DataSeries.findIndex().
+                    int idx = Arrays.binarySearch(bars.times, 0, size, (long)args[0]);
+                    return idx >= 0 ? idx : Math.max(0, -idx - 2);
+                }
+                case "toString/0": return "DataSeries(" + bars.name + ")";
+                case "hashCode/0": return System.identityHashCode(proxy);
+                case "equals/1": return proxy == args[0];
+            }
+            throw new UnsupportedOperationException("DataSeries." + method.getName());
+        });
+    }
+
+    private static Float typicalPrice(Bars bars, int i)
+    {
+        return (bars.high[i] + bars.low[i] + bars.close[i]) / 3f;
+    }
+
+    private static Double value(Bars bars, HashMap<Object, Double[]> values, int i, Object key)
+    {
+        if (key == TP)
+            return (double)typicalPrice(bars, i);
+        var column = values.get(key);
+        return column != null ? column[i] : null;
+    }
+
+    private static Double ema(Bars bars, HashMap<Object, Double[]> values, int i, int period, Object key)
+    {
+        int first = 0;
+        while (first <= i && value(bars, values, first, key) == null)
+            first++;
+        if (i - first + 1 < period)
+            return null;
+        double sum = 0;
+        for (int j = first; j < first + period; j++)
+            sum += value(bars, values, j, key);
+        double ema = sum / period;
+        double k = 2.0 / (period + 1);
+        for (int j = first + period; j <= i; j++)
+        {
+            var v = value(bars, values, j, key);
+            if (v == null)
+                return null;
+            ema = k * v + (1 - k) * ema;
+        }
+        return ema;
+    }
+
+    private static Double sma(Bars bars, HashMap<Object, Double[]> values, int i, int period, Object key)
+    {
+        if (i + 1 < period)
+            return null;
+        double sum = 0;
+        for (int j = i - period + 1; j <= i; j++)
+        {
+            var v = value(bars, values, j, key);
+            if (v == null)
+                return null;
+            sum += v;
+        }
+        return sum / period;
+    }
+
+    static Instrument instrument(String symbol, double tickSize)
+    {
+        return (Instrument)Proxy.newProxyInstance(Instrument.class.getClassLoader(), new Class<?>[] {Instrument.class}, (proxy, method, args) -> {
+            switch (method.getName())
+            {
+                case "getSymbol": return symbol;
+                case "getTickSize": return tickSize;
+                case "toString": return "Instrument(" + symbol + ")";
+                case "hashCode": return System.identityHashCode(proxy);
+                case "equals": return proxy == args[0];
+            }
+            throw new UnsupportedOperationException("Instrument." + method.getName());
+        });
+    }
+}
@@ -0,0 +1,457 @@
+import com.motivewave.platform.sdk.common.DataSeries;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Runs the studies' calculations over every dataset (see Bars) and compares their exported values and figures
+ * with the golden files in test/golden/<case>/<dataset>.txt.
+ * The studies themselves can only be constructed inside MotiveWave, so each case drives the classes a study
+ * delegates to, the way the study does, reading bars through the SDK stand-ins where those classes take a DataSeries.
+ * Cases that check an alternative path (batch, streaming) compare against the golden file of the reference
+ * calculation within a tolerance.
+ * Run with: ant test [-Dgolden.update=true to rewrite the golden files]
+ */
+public class StudyTests
+{
+    interface Check
+    {
+        void run(Bars bars, Golden out) throws Exception;
+    }
+
+    record Case(String name, String golden, double tolerance, Check check) {}
+
+    final static long HOUR = 3_600_000L;
+    final static double OVERBOUGHT = 60;
+    final static double OVERSOLD = -60;
+    // Wave values are written for every SAMPLE_BARS'th bar and the last, any difference carries forward anyway.
+    final static int SAMPLE_BARS = 10;
+    final static double STREAM_TOLERANCE = 1e-9;
+    // The dashboard is written every SCAN_CHECKPOINT_BARS bars.
+    final static int SCAN_CHECKPOINT_BARS = 250;
+
+    public static void main(String[] args) throws Exception
+    {
+        var testDir = Path.of(args.length > 0 ? args[0] : "test");
+        boolean update = Boolean.getBoolean("golden.update");
+        var cases = List.of(
+                new Case("wavetrend", "wavetrend", 0, StudyTests::waveTrend),
+                new Case("wavetrend-batch", "wavetrend", STREAM_TOLERANCE, StudyTests::waveTrendBatch),
+                new Case("wavetrend-streaming", "wavetrend", STREAM_TOLERANCE, StudyTests::waveTrendStreaming),
+                new Case("wavetrend-htf", "wavetrend-htf", 0, StudyTests::waveTrendHigherTimeframe),
+                new Case("wavetrend-crossovers", "wavetrend-crossovers", 0, StudyTests::waveTrendCrossovers),
+                new Case("wavetrend-scan", "wavetrend-scan", 0, StudyTests::waveTrendScan),
+                new Case("imbalance-events", "imbalance-events", 0, StudyTests::imbalanceEvents),
+                new Case("imbalance-events-incremental", "imbalance-events", 0, StudyTests::imbalanceEventsIncremental),
+                new Case("imbalance-zones", "imbalance-zones", 0, StudyTests::imbalanceZones),
+                new Case("imbalance-fill-stats", "imbalance-fill-stats", 0, StudyTests::imbalanceFillStats),
+                new Case("initial-balance", "initial-balance", 0, StudyTests::initialBalance),
+                new Case("initial-balance-scan", "initial-balance-scan", 0, StudyTests::initialBalanceScan),
+                new Case("initial-balance-scan-incremental", "initial-balance-scan", 0, StudyTests::initialBalanceScanIncremental));
+
+        int failed = 0;
+        for (var bars : Bars.all(testDir.resolve("data")))
+        {
+            for (var c : cases)
+            {
+                var out = new Golden();
+                c.check().run(bars, out);
+                String label = c.name() + " [" + bars.name + "]";
+                if (out.size() == 0)
+                {
+                    System.out.println("SKIP " + label);
+                    continue;
+                }
+                var file = testDir.resolve("golden").resolve(c.golden()).resolve(bars.name + ".txt");
+                // Only the reference case writes its golden file, the others are always compared to it.
+                if (update && c.name().equals(c.golden()))
+                {
+                    out.write(file);
+                    System.out.println("WROTE " + label);
+                    continue;
+                }
+                var diff = out.compare(file, c.tolerance());
+                System.out.println((diff == null ? "PASS " : "FAIL ") + label + (diff == null ? "" : ": " + diff));
+                if (diff != null)
+                    failed++;
+            }
+        }
+        if (failed > 0)
+        {
+            System.out.println(failed + " failed");
+            System.exit(1);
+        }
+    }
+
+    private static boolean sampled(int i, int n)
+    {
+        return i % SAMPLE_BARS == 0 || i == n - 1;
+    }
+
+    /**
+     * The reference: WaveTrend.calculate(i) step by step, averaging the values stored in the series as the SDK does.
+     */
+    private static void waveTrend(Bars bars, Golden out)
+    {
+        int n = bars.size;
+        var series = StandIns.series(bars, n, n);
+        for (int i = WaveTrend.WARMUP_BARS; i < n; i++)
+        {
+            Double esa = series.ema(i, WaveTrend.CHLEN, StandIns.TP);
+            series.setDouble(i, WaveTrend.Values.ESA, esa);
+            var tp = series.getTypicalPrice(i);
+            series.setDouble(i, WaveTrend.Values.TMP, Math.abs(tp - esa));
+            var de = series.ema(i, WaveTrend.CHLEN, WaveTrend.Values.TMP);
+            if (de == null)
+                continue;
+            var ci = (tp - esa) / (0.015 * de);
+            series.setDouble(i, WaveTrend.Values.CI, ci);
+            var wt1 = series.ema(i, WaveTrend.AVG, WaveTrend.Values.CI);
+            if (wt1 == null)
+                continue;
+            series.setDouble(i, WaveTrend.Values.FAST_WAVE, wt1);
+            var wt2 = series.sma(i, WaveTrend.MALEN, WaveTrend.Values.FAST_WAVE);
+            if (wt2 == null)
+                continue;
+            series.setDouble(i, WaveTrend.Values.SLOW_WAVE, wt2);
+            series.setDouble(i, WaveTrend.Values.WAVE_DELTA, wt1 - wt2);
+        }
+        for (int i = WaveTrend.WARMUP_BARS; i < n; i++)
+        {
+            if (sampled(i, n))
+                out.add(bars.times[i], stored(series, i, WaveTrend.Values.ESA), stored(series, i, WaveTrend.Values.TMP),
+                        stored(series, i, WaveTrend.Values.CI), stored(series, i, WaveTrend.Values.FAST_WAVE),
+                        stored(series, i, WaveTrend.Values.SLOW_WAVE), stored(series, i, WaveTrend.Values.WAVE_DELTA));
+        }
+    }
+
+    private static double stored(DataSeries series, int i, Object key)
+    {
+        var value = series.getDouble(i, key);
+        return value != null ? value : Double.NaN;
+    }
+
+    /**
+     * The batch recompute (WaveTrend.calculateBatch) and the exported values it writes.
+     */
+    private static void waveTrendBatch(Bars bars, Golden out)
+    {
+        int n = bars.size;
+        var tp = bars.typicalPrices();
+        var cols = new WaveTrendMath.Columns();
+        WaveTrendMath.compute(tp, n, WaveTrend.CHLEN, WaveTrend.AVG, WaveTrend.MALEN, WaveTrend.WARMUP_BARS, cols);
+        for (int i = 0; i < n; i++)
+        {
+            // Values are only written from WARMUP_BARS on.
+            if (i >= WaveTrend.WARMUP_BARS && sampled(i, n))
+                out.add(bars.times[i], cols.esa[i], cols.tmp[i], cols.ci[i], cols.wt1[i], cols.wt2[i], cols.delta[i]);
+        }
+    }
+
+    /**
+     * The bar by bar state used when streaming (WaveTrend.calculateStreaming with one chart bar per bucket).
+     */
+    private static void waveTrendStreaming(Bars bars, Golden out)
+    {
+        var tp = bars.typicalPrices();
+        var state = new WaveTrendMath.State(WaveTrend.CHLEN, WaveTrend.AVG, WaveTrend.MALEN, WaveTrend.WARMUP_BARS);
+        for (int i = 0; i < bars.size; i++)
+        {
+            state.push(tp[i]);
+            if (i >= WaveTrend.WARMUP_BARS && sampled(i, bars.size))
+                out.add(bars.times[i], state.esa, state.tmp, state.ci, state.wt1, state.wt2, state.delta);
+        }
+    }
+
+    /**
+     * Hourly waves projected onto each minute bar, as WaveTrend.calculateStreaming does for closed chart bars.
+     */
+    private static void waveTrendHigherTimeframe(Bars bars, Golden out)
+    {
+        var aggregator = new BarAggregator();
+        var state = new WaveTrendMath.State(WaveTrend.CHLEN, WaveTrend.AVG, WaveTrend.MALEN);
+        for (int i = 0; i < bars.size; i++)
+        {
+            long bucket = Math.floorDiv(bars.times[i], HOUR) * HOUR;
+            if (aggregator.closes(bucket))
+                state.push(aggregator.getTypicalPrice());
+            aggregator.start(bucket);
+            aggregator.add(bars.high[i], bars.low[i], bars.close[i]);
+            state.peek(aggregator.getTypicalPrice());
+            if (sampled(i, bars.size))
+                out.add(bars.times[i], bucket, state.wt1, state.wt2, state.delta);
+        }
+    }
+
+    /**
+     * The crossover markers WaveTrend adds, as time, direction and position.
+     */
+    private static void waveTrendCrossovers(Bars bars, Golden out)
+    {
+        int n = bars.size;
+        var cols = new WaveTrendMath.Columns();
+        WaveTrendMath.compute(bars.typicalPrices(), n, WaveTrend.CHLEN, WaveTrend.AVG, WaveTrend.MALEN, WaveTrend.WARMUP_BARS, cols);
+        for (int i = 1; i < n; i++)
+        {
+            if (Double.isNaN(cols.wt2[i - 1]) || Double.isNaN(cols.wt2[i]))
+                continue;
+            if (cols.wt1[i - 1] <= cols.wt2[i - 1] && cols.wt1[i] > cols.wt2[i])
+                out.add("BULLISH", bars.times[i], cols.wt2[i]);
+            else if (cols.wt1[i - 1] >= cols.wt2[i - 1] && cols.wt1[i] < cols.wt2[i])
+                out.add("BEARISH", bars.times[i], cols.wt2[i]);
+        }
+    }
+
+    /**
+     * The scanner's ranked table, over four instruments cut from the dataset (one with missing bars).
+     */
+    private static void waveTrendScan(Bars bars, Golden out)
+    {
+        int symbols = 4;
+        int offset = bars.size / 8;
+        int n = bars.size - offset * (symbols - 1);
+        var tp = bars.typicalPrices();
+        var names = new String[symbols];
+        var prices = new double[symbols][];
+        var times = new long[n];
+        System.arraycopy(bars.times, 0, times, 0, n);
+        for (int c = 0; c < symbols; c++)
+        {
+            names[c] = "S" + c;
+            prices[c] = WaveTrendScan.newColumn(n);
+            for (int i = 0; i < n; i++)
+            {
+                if (c != symbols - 1 || i % 37 != 0)
+                    prices[c][i] = tp[i + c * offset];
+            }
+        }
+        for (var r : WaveTrendScan.scan(names, prices, times, n, OVERBOUGHT, OVERSOLD))
+            out.add(r.symbol, r.crossDirection, r.barsSinceCross, r.crossTime, r.fastWave, r.slowWave, r.zone);
+    }
+
+    /**
+     * The volume imbalance figures detected on a base series (ImbalanceEventIndex), read through the stand-ins.
+     */
+    private static void imbalanceEvents(Bars bars, Golden out)
+    {
+        var index = new ImbalanceEventIndex(TickPrice.of(StandIns.instrument(bars.name, Bars.TICK_SIZE)));
+        index.update(StandIns.series(bars, bars.size, bars.size));
+        writeEvents(index, out);
+    }
+
+    /**
+     * As imbalanceEvents, but fed one update per bar with the last bar still forming, as on a live chart.
+     */
+    private static void imbalanceEventsIncremental(Bars bars, Golden out)
+    {
+        var index = new ImbalanceEventIndex(new TickPrice(Bars.TICK_SIZE));
+        // A second chart that lags behind shares the index and must not disturb it.
+        for (int size = 1; size <= bars.size; size++)
+        {
+            index.update(StandIns.series(bars, size, size - 1));
+            index.update(StandIns.series(bars, size / 2, size / 2));
+        }
+        index.update(StandIns.series(bars, bars.size, bars.size));
+        writeEvents(index, out);
+    }
+
+    private static void writeEvents(ImbalanceEventIndex index, Golden out)
+    {
+        for (int i = 0; i < index.size(); i++)
+        {
+            long fill = index.getFillTime(i);
+            out.add(index.getStartTime(i), index.isBullish(i) ? "BULLISH" : "BEARISH", index.getLowTicks(i), index.getHighTicks(i),
+                    fill == ImbalanceEventIndex.NOT_FILLED ? "OPEN" : fill);
+        }
+    }
+
+    /**
+     * Merged zones, as VolumeImbalances.updateZones builds them: each bar first fills the zones it trades
+     * through and then adds its own imbalance.
+     */
+    private static void imbalanceZones(Bars bars, Golden out)
+    {
+        var prices = new TickPrice(Bars.TICK_SIZE);
+        var bullish = new PriceZoneSet();
+        var bearish = new PriceZoneSet();
+        var closed = new ArrayList<PriceZoneSet.Zone>();
+        for (int i = 1; i < bars.size; i++)
+        {
+            long time = bars.times[i];
+            long low = prices.toTicks(bars.low[i]);
+            long high = prices.toTicks(bars.high[i]);
+            int filled = bullish.remove(low, high, time, closed) + bearish.remove(low, high, time, closed);
+            if (filled > 0)
+                out.add("FILLED", time, filled);
+
+            long prevClose = prices.toTicks(bars.close[i - 1]);
+            long prevOpen = prices.toTicks(bars.open[i - 1]);
+            long currOpen = prices.toTicks(bars.open[i]);
+            long currClose = prices.toTicks(bars.close[i]);
+            if (Math.abs(currOpen - prevClose) < VolumeImbalances.MIN_TICKS)
+                continue;
+            if (prevClose >= prevOpen && currClose >= currOpen && currOpen > prevClose)
+                bullish.insert(prevClose, currOpen, time, closed);
+            else if (prevClose < prevOpen && currClose < currOpen && currOpen < prevClose)
+                bearish.insert(currOpen, prevClose, time, closed);
+        }
+        for (var zone : closed)
+            out.add("CLOSED", zone.low, zone.high, zone.startTime, zone.firstTime, zone.endTime, zone.count);
+        for (var zone : bullish.getZones())
+            out.add("BULLISH", zone.low, zone.high, zone.startTime, zone.firstTime, zone.count);
+        for (var zone : bearish.getZones())
+            out.add("BEARISH", zone.low, zone.high, zone.startTime, zone.firstTime, zone.count);
+    }
+
+    /**
+     * The fill statistics table, built from the detected events.
+     */
+    private static void imbalanceFillStats(Bars bars, Golden out)
+    {
+        var index = new ImbalanceEventIndex(new TickPrice(Bars.TICK_SIZE));
+        index.update(StandIns.series(bars, bars.size, bars.size));
+        var stats = new ImbalanceFillStats();
+        for (int i = 0; i < index.size(); i++)
+        {
+            int direction = index.isBullish(i) ? ImbalanceFillStats.BULLISH : ImbalanceFillStats.BEARISH;
+            int ticks = (int)(index.getHighTicks(i) - index.getLowTicks(i));
+            stats.onOpen(direction, ticks);
+            long fill = index.getFillTime(i);
+            if (fill != ImbalanceEventIndex.NOT_FILLED)
+                stats.onFill(direction, ticks, (int)((fill - index.getStartTime(i)) / Bars.MINUTE));
+        }
+        for (int direction = 0; direction < 2; direction++)
+        {
+            for (int ticks = 1; ticks <= ImbalanceFillStats.MAX_TICKS; ticks++)
+                out.add(direction, ticks, stats.getOpened(direction, ticks), stats.getFilled(direction, ticks),
+                        stats.getFillRate(direction, ticks), stats.getMedianBarsToFill(direction, ticks));
+            out.add(direction, "ALL", stats.getOpened(direction), stats.getFilled(direction),
+                    stats.getFillRate(direction), stats.getMedianBarsToFill(direction));
+        }
+    }
+
+    /**
+     * The IB regions of a 09:30-10:30 New York timeframe with their range statistics, built from the minute bars
+     * the way InitialBalanceWindow does.
+     */
+    private static void initialBalance(Bars bars, Golden out)
+    {
+        var prices = new TickPrice(Bars.TICK_SIZE);
+        var calendar = SessionCalendar.get(TimeZone.getTimeZone("America/New_York"), (int)(9.5 * HOUR), (int)(10.5 * HOUR),
+                bars.times[0], bars.times[bars.size - 1]);
+        var stats = new RollingStats(20);
+        int session = 0;
+        long high = TickPrice.NONE;
+        long low = TickPrice.NONE;
+        for (int i = 0; i <= bars.size; i++)
+        {
+            long time = i < bars.size ? bars.times[i] : Long.MAX_VALUE;
+            while (session < calendar.size() && calendar.getEndTime(session) <= time)
+            {
+                if (high != TickPrice.NONE)
+                {
+                    double range = prices.toPrice(high - low);
+                    out.add(calendar.getStartTime(session), calendar.getEndTime(session), prices.toPrice(high),
+                            prices.toPrice(TickPrice.mid(low, high)), prices.toPrice(low), range,
+                            stats.mean(), stats.std(), stats.percentileRank(range), stats.size());
+                    stats.add(range);
+                }
+                high = TickPrice.NONE;
+                low = TickPrice.NONE;
+                session++;
+            }
+            if (i == bars.size || session >= calendar.size() || time < calendar.getStartTime(session))
+                continue;
+            long barHigh = prices.toTicks(bars.high[i]);
+            long barLow = prices.toTicks(bars.low[i]);
+            high = high == TickPrice.NONE ? barHigh : Math.max(high, barHigh);
+            low = low == TickPrice.NONE ? barLow : Math.min(low, barLow);
+        }
+    }
+
+    /**
+     * The dashboard's table at each checkpoint, over four instruments cut from the dataset (one with missing bars),
+     * each block of bars fed in parallel as on a chart's first calculation.
+     */
+    private static void initialBalanceScan(Bars bars, Golden out)
+    {
+        initialBalanceScan(bars, out, false);
+    }
+
+    /**
+     * As initialBalanceScan, but fed one update per bar with the last bar fed again once complete, as on a live chart.
+     */
+    private static void initialBalanceScanIncremental(Bars bars, Golden out)
+    {
+        initialBalanceScan(bars, out, true);
+    }
+
+    private static void initialBalanceScan(Bars bars, Golden out, boolean incremental)
+    {
+        int symbols = 4;
+        int offset = bars.size / 8;
+        int n = bars.size - offset * (symbols - 1);
+        var prices = new TickPrice(Bars.TICK_SIZE);
+        var calendar = SessionCalendar.get(TimeZone.getTimeZone("America/New_York"), (int)(9.5 * HOUR), (int)(10.5 * HOUR),
+                bars.times[0], bars.times[n - 1]);
+        var trackers = new InitialBalanceScan.Tracker[symbols];
+        var lows = new long[symbols][n];
+        var highs = new long[symbols][n];
+        var closes = new long[symbols][n];
+        for (int c = 0; c < symbols; c++)
+        {
+            trackers[c] = new InitialBalanceScan.Tracker("S" + c, prices);
+            trackers[c].setCalendar(calendar);
+            for (int i = 0; i < n; i++)
+            {
+                int src = i + c * offset;
+                lows[c][i] = c == symbols - 1 && i % 37 == 0 ? TickPrice.NONE : prices.toTicks(bars.low[src]);
+                highs[c][i] = prices.toTicks(bars.high[src]);
+                closes[c][i] = prices.toTicks(bars.close[src]);
+            }
+        }
+
+        var order = InitialBalanceScan.comparator(InitialBalanceScan.SORT_RANGE, true);
+        int fed = 0;
+        for (int end = SCAN_CHECKPOINT_BARS; fed < n; end = Math.min(n, end + SCAN_CHECKPOINT_BARS))
+        {
+            if (incremental)
+            {
+                // The previous bar is fed again as the chart's developing bar completes.
+                for (; fed < end; fed++)
+                {
+                    int first = Math.max(0, fed - 1);
+                    feedScan(trackers, bars.times, lows, highs, closes, first, fed + 1, false);
+                }
+            }
+            else
+            {
+                feedScan(trackers, bars.times, lows, highs, closes, fed, end, true);
+                fed = end;
+            }
+            long now = bars.times[end - 1] + Bars.MINUTE;
+            for (var r : InitialBalanceScan.results(trackers, now, order))
+                out.add(now, r.symbol, r.startTime, r.developing, r.high, r.low, r.rangePercent, r.previousRange, r.last,
+                        r.position, r.offset, r.extUp, r.extDown);
+        }
+    }
+
+    private static void feedScan(InitialBalanceScan.Tracker[] trackers, long[] times, long[][] lows, long[][] highs, long[][] closes,
+                                 int from, int to, boolean parallel)
+    {
+        int symbols = trackers.length;
+        var blockLows = new long[symbols][];
+        var blockHighs = new long[symbols][];
+        var blockCloses = new long[symbols][];
+        for (int c = 0; c < symbols; c++)
+        {
+            blockLows[c] = Arrays.copyOfRange(lows[c], from, to);
+            blockHighs[c] = Arrays.copyOfRange(highs[c], from, to);
+            blockCloses[c] = Arrays.copyOfRange(closes[c], from, to);
+        }
+        InitialBalanceScan.feed(trackers, Arrays.copyOfRange(times, from, to), blockLows, blockHighs, blockCloses, to - from, parallel);
+    }
+}